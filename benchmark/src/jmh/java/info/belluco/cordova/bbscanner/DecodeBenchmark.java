@@ -0,0 +1,119 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes synthetic camera frames with the decoder setupCamera() builds: all the default formats,
+ * a single symbol per frame and the hybrid binarizer, on the default framing rect.
+ *
+ * Every iteration runs the whole per-frame pipeline of a worker, the luminance stage and the
+ * decoder. decodeThroughput reports operations per second, decodeLatency the latency percentiles,
+ * and the gc profiler the allocation rate and bytes allocated per decode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    /**
+     * The frames of a trial differ in their noise, so the decoder does not see the same frame again
+     * and again
+     */
+    private static final int FRAMES = 8;
+
+    @Param({ "QR_CODE", "DATA_MATRIX", "PDF_417", "UPC_A", "UPC_E", "EAN_8", "EAN_13", "CODE_39", "CODE_93",
+            "CODE_128", "CODABAR", "ITF" })
+    public String format;
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    /**
+     * clean renders the code as is, distorted rotates it by 3 degrees, adds noise and blurs it
+     */
+    @Param({ "clean", "distorted" })
+    public String quality;
+
+    private Frame[] frames;
+    private int[] framingRect;
+    private LuminanceStage stage;
+    private FrameDecoder decoder;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BarcodeFormat barcodeFormat = BarcodeFormat.valueOf(format);
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        boolean distorted = "distorted".equals(quality);
+
+        frames = new Frame[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = distorted
+                    ? SyntheticFrames.render(barcodeFormat, width, height, 3, 1, 12, i)
+                    : SyntheticFrames.render(barcodeFormat, width, height, 0, 0, 0, i);
+        }
+        framingRect = SyntheticFrames.defaultFramingRect(frames[0]);
+        stage = new LuminanceStage(new BufferPool(2));
+        decoder = new FrameDecoder(new DecoderConfig(DecoderConfig.DEFAULT_FORMATS), false,
+                new BinarizerSelector(BinarizerSelector.Strategy.HYBRID));
+
+        // A corpus the decoder cannot read would only measure the cost of failing
+        for (Frame frame : frames) {
+            Result[] results = decode(frame);
+            if (results == null || results[0].getBarcodeFormat() != barcodeFormat) {
+                throw new IllegalStateException("A " + quality + " " + format + " frame at " + resolution
+                        + " does not decode");
+            }
+        }
+    }
+
+    @Benchmark
+    public Result[] decodeThroughput() {
+        return decode(nextFrame());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Result[] decodeLatency() {
+        return decode(nextFrame());
+    }
+
+    private Frame nextFrame() {
+        Frame frame = frames[next];
+        next = (next + 1) % FRAMES;
+        return frame;
+    }
+
+    private Result[] decode(Frame frame) {
+        try {
+            LuminanceSource source = stage.extract(frame, framingRect[0], framingRect[1], framingRect[2],
+                    framingRect[3], 1);
+            return decoder.decode(source);
+        } finally {
+            stage.release();
+        }
+    }
+}
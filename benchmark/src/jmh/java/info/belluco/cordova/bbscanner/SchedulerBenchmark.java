@@ -0,0 +1,103 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds synthetic 1280x720 QR code frames to the {@link DecodeScheduler} as fast as its workers take
+ * them, to measure how the decode rate scales with the number of workers.
+ *
+ * Every operation is one frame: it waits until a worker took the previous frame and submits the
+ * next one, so no frame is dropped and the reported operations per second are the frames decoded
+ * per second. The workers run the same per-frame pipeline as the plugin, the luminance stage and the
+ * decoder, without a frame rate limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    private static final int FRAMES = 8;
+
+    @Param({ "1", "2", "4", "8" })
+    public int workers;
+
+    private Frame[] frames;
+    private int[] framingRect;
+    private DecodeScheduler<Result[]> scheduler;
+    /**
+     * This variable stores a permit while the scheduler has no frame waiting
+     */
+    private Semaphore slotFree;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frames = new Frame[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = SyntheticFrames.render(BarcodeFormat.QR_CODE, 1280, 720, 0, 0, 0, i);
+        }
+        framingRect = SyntheticFrames.defaultFramingRect(frames[0]);
+
+        BufferPool bufferPool = new BufferPool(workers + 1);
+        List<DecodeScheduler.FrameHandler<Result[]>> handlers = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            LuminanceStage stage = new LuminanceStage(bufferPool);
+            FrameDecoder decoder = new FrameDecoder(new DecoderConfig(DecoderConfig.DEFAULT_FORMATS), false,
+                    new BinarizerSelector(BinarizerSelector.Strategy.HYBRID));
+            handlers.add(frame -> decode(stage, decoder, frame));
+        }
+
+        slotFree = new Semaphore(1);
+        scheduler = new DecodeScheduler<>(handlers, (frame, results) -> { }, 0, false);
+        scheduler.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Benchmark
+    public boolean framesPerSecond() throws InterruptedException {
+        slotFree.acquire();
+        Frame frame = frames[next];
+        next = (next + 1) % FRAMES;
+        return scheduler.submit(frame);
+    }
+
+    private Result[] decode(LuminanceStage stage, FrameDecoder decoder, Frame frame) {
+        // The worker took the frame, the next one can wait in its place
+        slotFree.release();
+        try {
+            LuminanceSource source = stage.extract(frame, framingRect[0], framingRect[1], framingRect[2],
+                    framingRect[3], 1);
+            return decoder.decode(source);
+        } finally {
+            stage.release();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Compares the encode time and output size of the snap options on a 1280x720 preview image.
+ *
+ * Bitmap.compress only runs on a device, so the image is compressed with ImageIO instead; the
+ * absolute times differ from a phone, the ratios between the options hold. WebP has no ImageIO
+ * writer and is not covered. The buffer handling is the plugin's own {@link ReusableOutputStream}:
+ * base64 and binary are the two in-memory outputs of snap, growingBuffer the encoding snap used
+ * before, a default ByteArrayOutputStream copied by toByteArray().
+ *
+ * The average time is per snapshot, outputBytes the size of the compressed image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapBenchmark {
+
+    /**
+     * png, or jpeg at a quality
+     */
+    @Param({ "png", "jpeg-50", "jpeg-80", "jpeg-95" })
+    public String encoding;
+
+    /**
+     * The maxWidth option, 0 for the full size
+     */
+    @Param({ "0", "640" })
+    public int maxWidth;
+
+    /**
+     * Reports the size of the last snapshot
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        public long outputBytes;
+    }
+
+    private BufferedImage preview;
+    private String formatName;
+    private int quality;
+    /**
+     * This variable stores the output buffer, sized as in SnapEncoder
+     */
+    private final ReusableOutputStream output = new ReusableOutputStream(64 * 1024, 4 * 1024 * 1024);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ImageIO.setUseCache(false);
+        Frame frame = SyntheticFrames.render(BarcodeFormat.QR_CODE, 1280, 720, 3, 1, 12, 0);
+        preview = new BufferedImage(frame.width, frame.height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < frame.height; y++) {
+            for (int x = 0; x < frame.width; x++) {
+                int luminance = frame.data[y * frame.width + x] & 0xff;
+                preview.setRGB(x, y, luminance << 16 | luminance << 8 | luminance);
+            }
+        }
+        String[] parts = encoding.split("-");
+        formatName = parts[0];
+        quality = parts.length > 1 ? Integer.parseInt(parts[1]) : 100;
+    }
+
+    @Benchmark
+    public String base64(Output counters) throws IOException {
+        BufferedImage image = scale(preview);
+        output.reset(expectedSize(image));
+        compress(image, output);
+        counters.outputBytes = output.size();
+        // Encodes straight from the buffer, as android.util.Base64 does with an offset and length
+        ByteBuffer encoded64 = Base64.getMimeEncoder().encode(ByteBuffer.wrap(output.buffer(), 0, output.size()));
+        String encoded = new String(encoded64.array(), 0, encoded64.limit(), StandardCharsets.ISO_8859_1);
+        output.trim();
+        return encoded;
+    }
+
+    @Benchmark
+    public byte[] binary(Output counters) throws IOException {
+        BufferedImage image = scale(preview);
+        output.reset(expectedSize(image));
+        compress(image, output);
+        counters.outputBytes = output.size();
+        byte[] bytes = Arrays.copyOf(output.buffer(), output.size());
+        output.trim();
+        return bytes;
+    }
+
+    @Benchmark
+    public String growingBuffer(Output counters) throws IOException {
+        BufferedImage image = scale(preview);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        compress(image, stream);
+        counters.outputBytes = stream.size();
+        return Base64.getMimeEncoder().encodeToString(stream.toByteArray());
+    }
+
+    /**
+     * Scales the preview down to maxWidth with bilinear filtering, as Bitmap.createScaledBitmap does.
+     */
+    private BufferedImage scale(BufferedImage image) {
+        if (maxWidth <= 0 || image.getWidth() <= maxWidth) {
+            return image;
+        }
+        int height = Math.max(1, Math.round(image.getHeight() * (float) maxWidth / image.getWidth()));
+        BufferedImage scaled = new BufferedImage(maxWidth, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, maxWidth, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    private void compress(BufferedImage image, OutputStream stream) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(formatName).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if ("jpeg".equals(formatName)) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+        }
+        try (ImageOutputStream imageStream = ImageIO.createImageOutputStream(stream)) {
+            writer.setOutput(imageStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * The estimate of SnapEncoder.expectedSize, which takes an Android Bitmap.
+     */
+    private int expectedSize(BufferedImage image) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        long bytes = "png".equals(formatName) ? pixels * 3 : pixels * (10 + quality * 140 / 100) / 100;
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, bytes));
+    }
+}
@@ -0,0 +1,199 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Renders synthetic camera frames holding one barcode, for the benchmarks.
+ *
+ * A frame is rendered upright, in display orientation, then stored in the NV21 layout of a back
+ * camera mounted at 90 degrees, the usual case for a phone held in portrait. The barcode can be
+ * rotated, blurred and covered in noise.
+ *
+ * RSS_14 and RSS_EXPANDED are decoded by the plugin but zxing has no writer for them, so they are
+ * not part of the corpus.
+ */
+final class SyntheticFrames {
+
+    /**
+     * The camera rotation of the frames, as reported by the CameraInstance of a portrait phone
+     */
+    static final int CAMERA_ROTATION = 90;
+
+    private static final Map<BarcodeFormat, String> CONTENTS = new EnumMap<>(BarcodeFormat.class);
+
+    static {
+        CONTENTS.put(BarcodeFormat.QR_CODE, "https://example.com/item/0123456789");
+        CONTENTS.put(BarcodeFormat.DATA_MATRIX, "BBSCANNER-DM-0001");
+        CONTENTS.put(BarcodeFormat.UPC_A, "012345678905");
+        CONTENTS.put(BarcodeFormat.UPC_E, "01234565");
+        CONTENTS.put(BarcodeFormat.EAN_8, "96385074");
+        CONTENTS.put(BarcodeFormat.EAN_13, "5901234123457");
+        CONTENTS.put(BarcodeFormat.CODE_39, "BBSCANNER39");
+        CONTENTS.put(BarcodeFormat.CODE_93, "BBSCANNER93");
+        CONTENTS.put(BarcodeFormat.CODE_128, "bbscanner-128");
+        CONTENTS.put(BarcodeFormat.CODABAR, "A40156B");
+        CONTENTS.put(BarcodeFormat.ITF, "00012345678905");
+        CONTENTS.put(BarcodeFormat.PDF_417, "BBScanner PDF417 benchmark");
+    }
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * @param format a barcode format
+     * @return the contents rendered for this format, or null if the format cannot be rendered
+     */
+    static String contents(BarcodeFormat format) {
+        return CONTENTS.get(format);
+    }
+
+    /**
+     * Renders a frame.
+     *
+     * @param format     the barcode format
+     * @param width      the width of the camera frame, in sensor orientation
+     * @param height     the height of the camera frame, in sensor orientation
+     * @param angle      the rotation of the barcode, in degrees
+     * @param blurRadius the strength of the blur, 0 for none
+     * @param noise      the standard deviation of the gaussian noise before the blur, in luminance
+     *                   levels
+     * @param seed       the seed of the noise
+     * @return the frame
+     */
+    static Frame render(BarcodeFormat format, int width, int height, double angle, int blurRadius,
+                        double noise, long seed) {
+        // The display is the sensor rotated by 90 degrees
+        int displayWidth = height;
+        int displayHeight = width;
+        int[] image = new int[displayWidth * displayHeight];
+        Arrays.fill(image, 235);
+        drawCode(image, displayWidth, displayHeight, encode(format), angle);
+        // Sensor noise goes through the optics like the scene, so it is blurred too
+        Random random = new Random(seed);
+        for (int i = 0; i < image.length; i++) {
+            image[i] += (int) Math.round(random.nextGaussian() * noise);
+        }
+        if (blurRadius > 0) {
+            image = blur(image, displayWidth, displayHeight, blurRadius);
+        }
+        byte[] data = new byte[width * height * 3 / 2];
+        // Chroma is neutral grey
+        Arrays.fill(data, width * height, data.length, (byte) 128);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Inverse of the 90 degree rotation the decoder applies
+                int value = image[x * displayWidth + (displayWidth - 1 - y)];
+                data[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return new Frame(data, width, height, 17 /* ImageFormat.NV21 */, CAMERA_ROTATION, 0);
+    }
+
+    /**
+     * Computes the rect BarcodeView decodes by default: the display inset by a tenth of its smallest
+     * side, and made square when it is taller than wide.
+     *
+     * @param frame a frame
+     * @return {left, top, width, height} in display orientation
+     */
+    static int[] defaultFramingRect(Frame frame) {
+        boolean rotated = frame.rotation % 180 != 0;
+        int width = rotated ? frame.height : frame.width;
+        int height = rotated ? frame.width : frame.height;
+        int margin = (int) Math.min(width * 0.1, height * 0.1);
+        int left = margin;
+        int top = margin;
+        int cropWidth = width - 2 * margin;
+        int cropHeight = height - 2 * margin;
+        if (cropHeight > cropWidth) {
+            int inset = (cropHeight - cropWidth) / 2;
+            top += inset;
+            cropHeight -= 2 * inset;
+        }
+        return new int[] { left, top, cropWidth, cropHeight };
+    }
+
+    /**
+     * Encodes the contents of a format in a matrix of one pixel per module.
+     */
+    private static BitMatrix encode(BarcodeFormat format) {
+        String contents = CONTENTS.get(format);
+        if (contents == null) {
+            throw new IllegalArgumentException("No writer for " + format);
+        }
+        Map<EncodeHintType, Object> hints = Collections.<EncodeHintType, Object>singletonMap(EncodeHintType.MARGIN, 4);
+        try {
+            return new MultiFormatWriter().encode(contents, format, 0, 0, hints);
+        } catch (WriterException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Draws a matrix centered on the image, scaled by a whole number of pixels per module, at least
+     * two, to about 70% of the width of the image, and rotated around its center.
+     */
+    private static void drawCode(int[] image, int width, int height, BitMatrix code, double angle) {
+        int moduleSize = Math.max(2, width * 7 / 10 / code.getWidth());
+        // 1D writers return a single row, give the bars a usual height
+        int rows = code.getHeight() == 1 ? Math.max(1, code.getWidth() / 3) : code.getHeight();
+        int codeWidth = code.getWidth() * moduleSize;
+        int codeHeight = code.getHeight() == 1 ? rows * moduleSize : code.getHeight() * moduleSize;
+        double cos = Math.cos(Math.toRadians(angle));
+        double sin = Math.sin(Math.toRadians(angle));
+        double centerX = width / 2.0;
+        double centerY = height / 2.0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Map the image pixel back onto the unrotated code
+                double dx = x + 0.5 - centerX;
+                double dy = y + 0.5 - centerY;
+                int cx = (int) Math.floor(dx * cos + dy * sin + codeWidth / 2.0);
+                int cy = (int) Math.floor(-dx * sin + dy * cos + codeHeight / 2.0);
+                if (cx < 0 || cy < 0 || cx >= codeWidth || cy >= codeHeight) {
+                    continue;
+                }
+                int mx = cx / moduleSize;
+                int my = code.getHeight() == 1 ? 0 : cy / moduleSize;
+                image[y * width + x] = code.get(mx, my) ? 25 : 235;
+            }
+        }
+    }
+
+    /**
+     * Blurs with the separable [1 2 1] kernel, applied radius times, which approximates a gaussian
+     * blur like the one of a slightly defocused lens.
+     */
+    private static int[] blur(int[] image, int width, int height, int radius) {
+        int[] temp = new int[image.length];
+        int[] result = image.clone();
+        for (int pass = 0; pass < radius; pass++) {
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int left = result[row + Math.max(0, x - 1)];
+                    int right = result[row + Math.min(width - 1, x + 1)];
+                    temp[row + x] = (left + 2 * result[row + x] + right) / 4;
+                }
+            }
+            for (int y = 0; y < height; y++) {
+                int up = Math.max(0, y - 1) * width;
+                int down = Math.min(height - 1, y + 1) * width;
+                for (int x = 0; x < width; x++) {
+                    result[y * width + x] = (temp[up + x] + 2 * temp[y * width + x] + temp[down + x]) / 4;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,239 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a frame recording made with the recordFrames scan option through the decode pipeline of
+ * the plugin, to compare decode settings on the same frames off the device. Every frame goes through
+ * the {@link FramePipeline} of the plugin, the gates and decode the camera frames go through. Run it with
+ * `gradle replay -PreplayArgs="file=session.frames formats=QR_CODE,EAN_13 fps=30"` from this directory.
+ *
+ * Options, as key=value arguments:
+ * <pre>
+ * file        the recording, required
+ * formats     comma separated format names, all the default formats when missing
+ * region      the scan region as left,top,width,height fractions of the upright frame, the whole
+ *             frame when missing
+ * fps         frames per second, "recorded" for the recorded timing, "unpaced" (the default) to
+ *             decode every frame one after the other
+ * binarizer   hybrid, global or adaptive
+ * downsample  keep one pixel out of this many in each direction
+ * threads     decoder worker threads, paced replays only
+ * multiSymbol true to decode every barcode of a frame
+ * motionThreshold, motionRecheckMs   skip unchanged frames as the scan options do
+ * sharpnessRatio                     reject blurry frames as the scan option does
+ * pyramidLevels                      decode at 2 or 3 resolutions, coarsest first
+ * </pre>
+ *
+ * An unpaced replay decodes every frame on the replay thread, so its counts do not depend on the
+ * speed of the machine. A paced replay goes through the {@link DecodeScheduler} like the camera
+ * does, frames arriving while the workers are busy are dropped.
+ */
+public final class ReplayRunner {
+
+    private final Map<BarcodeFormat, Integer> decodedByFormat = new EnumMap<>(BarcodeFormat.class);
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong framesWithResult = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong blurry = new AtomicLong();
+    private FramePipeline pipeline;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                usage("Not a key=value argument: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        if (!options.containsKey("file")) {
+            usage("Missing file=<recording>");
+        }
+        new ReplayRunner().run(options);
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: ReplayRunner file=<recording> [formats=QR_CODE,...]"
+                + " [region=<left>,<top>,<width>,<height>] [fps=unpaced|recorded|<n>]"
+                + " [binarizer=hybrid|global|adaptive] [downsample=<n>] [threads=<n>] [multiSymbol=true|false]"
+                + " [motionThreshold=<n>] [motionRecheckMs=<n>] [sharpnessRatio=<0..1>]"
+                + " [pyramidLevels=1|2|3]");
+        System.exit(2);
+    }
+
+    private void run(Map<String, String> options) throws Exception {
+        EnumSet<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        if (options.containsKey("formats")) {
+            for (String name : options.get("formats").split(",")) {
+                BarcodeFormat format = DecoderConfig.formatFromName(name.trim());
+                if (format == null) {
+                    usage("Unknown format: " + name);
+                }
+                formats.add(format);
+            }
+        }
+        DecoderConfig config = new DecoderConfig(formats);
+        String fpsOption = options.getOrDefault("fps", "unpaced");
+        double fps = "unpaced".equals(fpsOption) ? ReplayFrameSource.UNPACED
+                : "recorded".equals(fpsOption) ? ReplayFrameSource.RECORDED : Double.parseDouble(fpsOption);
+        BinarizerSelector selector = new BinarizerSelector(
+                BinarizerSelector.Strategy.fromName(options.get("binarizer")));
+        int downsample = Math.max(1, Integer.parseInt(options.getOrDefault("downsample", "1")));
+        int threads = fps == ReplayFrameSource.UNPACED ? 1
+                : Math.max(1, Integer.parseInt(options.getOrDefault("threads", "1")));
+        boolean multiSymbol = Boolean.parseBoolean(options.getOrDefault("multiSymbol", "false"));
+        int motionThreshold = Integer.parseInt(options.getOrDefault("motionThreshold", "0"));
+        long motionRecheckMs = Long.parseLong(options.getOrDefault("motionRecheckMs", "1000"));
+        double sharpnessRatio = Double.parseDouble(options.getOrDefault("sharpnessRatio", "0"));
+        int pyramidLevels = Integer.parseInt(options.getOrDefault("pyramidLevels", "1"));
+        PyramidSelector pyramid = pyramidLevels > 1 ? new PyramidSelector(downsample, pyramidLevels) : null;
+        int[] scales = pyramid != null ? pyramid.getScales() : new int[] { downsample };
+        ScanRegion region = options.containsKey("region") ? parseRegion(options.get("region"))
+                : new ScanRegion(0, 0, 1, 1);
+
+        File file = new File(options.get("file"));
+        ReplayFrameSource source = new ReplayFrameSource(file, fps, false);
+        // The scan region is resolved on the upright frame, as the preview framing rect is
+        FrameRecording header = source.getHeader();
+        boolean rotated = header.rotation % 180 != 0;
+        int[] crop = region.resolve(rotated ? header.height : header.width, rotated ? header.width : header.height);
+        pipeline = new FramePipeline(crop, downsample, threads,
+                motionThreshold > 0 ? new MotionGate(motionThreshold, motionRecheckMs) : null,
+                sharpnessRatio > 0 ? new SharpnessFilter(sharpnessRatio) : null, pyramid);
+        List<DecodeScheduler.FrameHandler<Result[]>> handlers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            FrameDecoder decoder = new FrameDecoder(config, multiSymbol, selector);
+            LuminanceStage[] levelStages = pipeline.newStages();
+            handlers.add(frame -> pipeline.decode(decoder, levelStages, frame));
+        }
+        long startNanos = System.nanoTime();
+        if (fps == ReplayFrameSource.UNPACED) {
+            DecodeScheduler.FrameHandler<Result[]> handler = handlers.get(0);
+            source.start(frame -> {
+                if (skip(frame)) {
+                    return true;
+                }
+                submitted.incrementAndGet();
+                long frameStart = System.nanoTime();
+                Result[] results = handler.decode(frame);
+                onDecoded(results, System.nanoTime() - frameStart);
+                return true;
+            });
+            source.join();
+        } else {
+            DecodeScheduler<Result[]> scheduler = new DecodeScheduler<>(handlers, (frame, results) -> { }, 0, false);
+            scheduler.setFrameListener(new DecodeScheduler.FrameListener<Result[]>() {
+                @Override
+                public void onFrameDropped() {
+                    dropped.incrementAndGet();
+                }
+
+                @Override
+                public void onFrameDecoded(Result[] results, long durationNanos) {
+                    onDecoded(results, durationNanos);
+                }
+            });
+            scheduler.start();
+            source.start(frame -> {
+                if (skip(frame)) {
+                    return true;
+                }
+                submitted.incrementAndGet();
+                return scheduler.submit(frame);
+            });
+            source.join();
+            // Let the workers finish the frames still in flight
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (decoded.get() + dropped.get() < submitted.get() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            scheduler.stop();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        source.close();
+
+        System.out.println("recording        " + file + ", " + source.getFrameCount() + " frames");
+        System.out.println("settings         formats=" + config.getFormats() + " fps=" + fpsOption
+                + " binarizer=" + BinarizerSelector.Strategy.fromName(options.get("binarizer"))
+                + " downsample=" + downsample + " threads=" + threads + " multiSymbol=" + multiSymbol
+                + " motionThreshold=" + motionThreshold + " motionRecheckMs=" + motionRecheckMs
+                + " sharpnessRatio=" + sharpnessRatio + " pyramidLevels=" + scales.length
+                + " region=" + crop[0] + "," + crop[1] + " " + crop[2] + "x" + crop[3]);
+        System.out.println("frames           " + (submitted.get() + skipped.get() + blurry.get()) + " received, "
+                + skipped.get() + " skipped, " + blurry.get() + " blurry, " + decoded.get() + " decoded, " + dropped.get() + " dropped, "
+                + framesWithResult.get() + " with a result");
+        System.out.printf("decode time      %.2f ms mean%n",
+                decoded.get() == 0 ? 0 : decodeNanos.get() / 1e6 / decoded.get());
+        System.out.printf("elapsed          %.1f ms%n", elapsedNanos / 1e6);
+        if (pyramid != null) {
+            for (int level = 0; level < scales.length; level++) {
+                System.out.println("pyramid " + scales[level] + "x       " + pyramid.getTries(level) + " tries, "
+                        + pyramid.getHits(level) + " hits");
+            }
+        }
+        synchronized (decodedByFormat) {
+            for (Map.Entry<BarcodeFormat, Integer> entry : decodedByFormat.entrySet()) {
+                System.out.println("  " + DecoderConfig.formatName(entry.getKey()) + " " + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Runs a frame through the gates of the pipeline and counts the skipped frames.
+     *
+     * @return true if the frame is not decoded
+     */
+    private boolean skip(Frame frame) {
+        switch (pipeline.admit(frame)) {
+            case UNCHANGED:
+                skipped.incrementAndGet();
+                return true;
+            case BLURRY:
+                blurry.incrementAndGet();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses the region option, left,top,width,height as fractions of the upright frame.
+     */
+    private static ScanRegion parseRegion(String option) {
+        String[] parts = option.split(",");
+        if (parts.length != 4) {
+            usage("Not a region: " + option);
+        }
+        return new ScanRegion(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]), Float.parseFloat(parts[2]),
+                Float.parseFloat(parts[3]));
+    }
+
+    private void onDecoded(Result[] results, long durationNanos) {
+        decoded.incrementAndGet();
+        decodeNanos.addAndGet(durationNanos);
+        if (results == null || results.length == 0) {
+            return;
+        }
+        framesWithResult.incrementAndGet();
+        synchronized (decodedByFormat) {
+            for (Result result : results) {
+                decodedByFormat.merge(result.getBarcodeFormat(), 1, Integer::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how bursts of commands are coalesced and skipped, on a fake scanner whose state the
+ * commands change. The executor only runs its tasks when the test drains it, like a busy UI thread
+ * that lets the commands pile up.
+ */
+public class CommandQueueTest {
+
+    private static final int BACK = 0;
+    private static final int FRONT = 1;
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    /**
+     * This variable stores what happened to the commands: "ran" or "answered", then the label
+     */
+    private final List<String> log = new ArrayList<>();
+    private final Scanner scanner = new Scanner();
+    private CommandQueue queue;
+
+    /**
+     * The state of the fake scanner, changed by the commands that run
+     */
+    private static final class Scanner {
+        boolean prepared = true;
+        boolean scanning = true;
+        boolean previewing = true;
+        boolean showing = true;
+        boolean lightOn = false;
+        int cameraId = BACK;
+    }
+
+    @Before
+    public void setUp() {
+        ScannerState state = new ScannerState(read -> {
+            read.prepared = scanner.prepared;
+            read.scanning = scanner.scanning;
+            read.previewing = scanner.previewing;
+            read.showing = scanner.showing;
+            read.lightOn = scanner.lightOn;
+            read.cameraId = scanner.cameraId;
+        });
+        queue = new CommandQueue(tasks::add, state);
+    }
+
+    @Test
+    public void pauseResumePauseRunsTheLastPauseOnly() {
+        submit(CommandQueue.Kind.PAUSE_PREVIEW, -1, "pause 1", () -> scanner.previewing = false);
+        submit(CommandQueue.Kind.RESUME_PREVIEW, -1, "resume", () -> scanner.previewing = true);
+        submit(CommandQueue.Kind.PAUSE_PREVIEW, -1, "pause 2", () -> scanner.previewing = false);
+        drain();
+
+        assertEquals(Arrays.asList("ran pause 2", "answered pause 1", "answered resume"), log);
+        assertFalse(scanner.previewing);
+    }
+
+    @Test
+    public void pauseResumeEndingWhereItStartedTouchesNothing() {
+        submit(CommandQueue.Kind.PAUSE_PREVIEW, -1, "pause", () -> scanner.previewing = false);
+        submit(CommandQueue.Kind.RESUME_PREVIEW, -1, "resume", () -> scanner.previewing = true);
+        drain();
+
+        assertEquals(Arrays.asList("answered resume", "answered pause"), log);
+        assertTrue(scanner.previewing);
+    }
+
+    @Test
+    public void lightBurstSetsTheLightOnce() {
+        for (int i = 1; i <= 3; i++) {
+            submit(CommandQueue.Kind.ENABLE_LIGHT, -1, "on " + i, () -> scanner.lightOn = true);
+        }
+        drain();
+        assertEquals(Arrays.asList("ran on 3", "answered on 1", "answered on 2"), log);
+        assertTrue(scanner.lightOn);
+
+        log.clear();
+        submit(CommandQueue.Kind.DISABLE_LIGHT, -1, "off", () -> scanner.lightOn = false);
+        submit(CommandQueue.Kind.ENABLE_LIGHT, -1, "on", () -> scanner.lightOn = true);
+        drain();
+        // The light is already on
+        assertEquals(Arrays.asList("answered on", "answered off"), log);
+        assertTrue(scanner.lightOn);
+    }
+
+    @Test
+    public void togglesCancelOutByParity() {
+        for (int count = 1; count <= 5; count++) {
+            log.clear();
+            int before = scanner.cameraId;
+            for (int i = 0; i < count; i++) {
+                toggle("toggle " + i);
+            }
+            drain();
+
+            int expected = count % 2 == 0 ? before : other(before);
+            assertEquals(count + " toggles", expected, scanner.cameraId);
+            assertEquals(count + " toggles", count % 2, ranCount());
+            assertEquals(count + " toggles", count, log.size());
+        }
+    }
+
+    @Test
+    public void toggleAfterASwitchToAGivenCameraRunsToo() {
+        submit(CommandQueue.Kind.SWITCH_CAMERA, FRONT, "front", () -> scanner.cameraId = FRONT);
+        toggle("toggle");
+        drain();
+
+        assertEquals(Arrays.asList("ran front", "ran toggle"), log);
+        assertEquals(BACK, scanner.cameraId);
+    }
+
+    @Test
+    public void switchToAGivenCameraReplacesPendingToggles() {
+        toggle("toggle 1");
+        toggle("toggle 2");
+        toggle("toggle 3");
+        submit(CommandQueue.Kind.SWITCH_CAMERA, FRONT, "front", () -> scanner.cameraId = FRONT);
+        submit(CommandQueue.Kind.SWITCH_CAMERA, BACK, "back", () -> scanner.cameraId = BACK);
+        drain();
+
+        // Already on the back camera, nothing runs but every command is answered
+        assertEquals(0, ranCount());
+        assertEquals(5, log.size());
+        assertEquals(BACK, scanner.cameraId);
+    }
+
+    @Test
+    public void commandsOfOtherGroupsAreNotCoalesced() {
+        submit(CommandQueue.Kind.PAUSE_PREVIEW, -1, "pause", () -> scanner.previewing = false);
+        submit(CommandQueue.Kind.ENABLE_LIGHT, -1, "on", () -> scanner.lightOn = true);
+        submit(CommandQueue.Kind.RESUME_PREVIEW, -1, "resume", () -> scanner.previewing = true);
+        assertEquals(3, queue.size());
+        drain();
+
+        assertEquals(Arrays.asList("ran pause", "ran on", "ran resume"), log);
+    }
+
+    private void toggle(String label) {
+        submit(CommandQueue.Kind.SWITCH_CAMERA, CommandQueue.TOGGLE_CAMERA, label,
+                () -> scanner.cameraId = other(scanner.cameraId));
+    }
+
+    private void submit(CommandQueue.Kind kind, int argument, String label, Runnable action) {
+        queue.submit(new CommandQueue.Command(kind, argument, () -> {
+            log.add("ran " + label);
+            action.run();
+        }, () -> log.add("answered " + label)));
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private int ranCount() {
+        int count = 0;
+        for (String entry : log) {
+            count += entry.startsWith("ran ") ? 1 : 0;
+        }
+        return count;
+    }
+
+    private static int other(int cameraId) {
+        return cameraId == BACK ? FRONT : BACK;
+    }
+}
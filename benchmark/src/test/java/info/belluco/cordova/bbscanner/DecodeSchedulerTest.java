@@ -0,0 +1,186 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the hand-over of frames between a fake frame source and the decoder workers: a waiting
+ * frame is replaced by the newest one, results come out in frame order, and nothing is delivered
+ * once the scheduler is stopped. The handlers return the number of the frame they decoded, the
+ * timestamp of the fake frames.
+ */
+public class DecodeSchedulerTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * This variable stores the numbers of the frames whose result was delivered, in delivery order
+     */
+    private final List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * This variable stores the latch counted down when a worker picks up frame 0
+     */
+    private final CountDownLatch blockedFrameTaken = new CountDownLatch(1);
+    /**
+     * This variable stores the latch that lets the blocked frame finish decoding
+     */
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DecodeScheduler<Long> scheduler;
+
+    @After
+    public void stopScheduler() {
+        release.countDown();
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void replacesTheWaitingFrameWithTheNewest() throws Exception {
+        scheduler = start(1);
+        assertTrue(scheduler.submit(frame(0)));
+        assertTrue(blockedFrameTaken.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // The only worker is busy, each of these replaces the one before it
+        scheduler.submit(frame(1));
+        scheduler.submit(frame(2));
+        scheduler.submit(frame(3));
+        assertEquals(2, scheduler.getDroppedFrames());
+
+        release.countDown();
+        awaitCondition(() -> scheduler.getDecodedFrames() == 2);
+        assertEquals(listOf(0, 3), snapshot());
+    }
+
+    @Test
+    public void dropsResultsOvertakenByANewerFrame() throws Exception {
+        scheduler = start(2);
+        scheduler.submit(frame(0));
+        assertTrue(blockedFrameTaken.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // The second worker decodes frame 1 while frame 0 is still blocked
+        scheduler.submit(frame(1));
+        awaitCondition(() -> delivered.size() == 1);
+        release.countDown();
+        awaitCondition(() -> scheduler.getDecodedFrames() == 2);
+
+        assertEquals(listOf(1), snapshot());
+        assertEquals(1, scheduler.getOvertakenResults());
+    }
+
+    @Test
+    public void deliversResultsInFrameOrder() throws Exception {
+        Random random = new Random(42);
+        List<DecodeScheduler.FrameHandler<Long>> handlers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            handlers.add(frame -> {
+                // Decode times vary so later frames often finish first
+                sleepQuietly(random.nextInt(4));
+                return frame.timestampNanos;
+            });
+        }
+        scheduler = new DecodeScheduler<>(handlers, (frame, number) -> delivered.add(number), 0, false);
+        scheduler.start();
+        for (int i = 1; i <= 200; i++) {
+            scheduler.submit(frame(i));
+            Thread.sleep(1);
+        }
+        awaitCondition(() -> scheduler.getDecodedFrames() + scheduler.getDroppedFrames() == 200);
+
+        List<Long> numbers = snapshot();
+        assertFalse(numbers.isEmpty());
+        for (int i = 1; i < numbers.size(); i++) {
+            assertTrue("frame " + numbers.get(i) + " delivered after " + numbers.get(i - 1),
+                    numbers.get(i) > numbers.get(i - 1));
+        }
+    }
+
+    @Test
+    public void stopDiscardsFramesInFlight() throws Exception {
+        scheduler = start(1);
+        scheduler.submit(frame(0));
+        assertTrue(blockedFrameTaken.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        scheduler.submit(frame(1));
+
+        scheduler.stop();
+        assertFalse(scheduler.isRunning());
+        assertFalse(scheduler.submit(frame(2)));
+        release.countDown();
+        awaitCondition(() -> scheduler.getDecodedFrames() == 1);
+        // Give a wrongly resumed worker the time to pick up frame 1
+        Thread.sleep(50);
+
+        assertEquals(1, scheduler.getDecodedFrames());
+        assertTrue(snapshot().isEmpty());
+    }
+
+    /**
+     * Starts a scheduler whose handlers block on frame 0 until {@link #release} is counted down.
+     */
+    private DecodeScheduler<Long> start(int workers) {
+        List<DecodeScheduler.FrameHandler<Long>> handlers = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            handlers.add(frame -> {
+                if (frame.timestampNanos == 0) {
+                    blockedFrameTaken.countDown();
+                    try {
+                        release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return frame.timestampNanos;
+            });
+        }
+        DecodeScheduler<Long> started = new DecodeScheduler<>(handlers, (frame, number) -> delivered.add(number), 0,
+                false);
+        started.start();
+        return started;
+    }
+
+    private List<Long> snapshot() {
+        synchronized (delivered) {
+            return new ArrayList<>(delivered);
+        }
+    }
+
+    private static Frame frame(long number) {
+        return new Frame(new byte[6], 2, 2, 17, 0, number);
+    }
+
+    private static List<Long> listOf(long... numbers) {
+        List<Long> list = new ArrayList<>();
+        for (long number : numbers) {
+            list.add(number);
+        }
+        return list;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
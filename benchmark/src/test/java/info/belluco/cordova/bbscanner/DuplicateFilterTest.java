@@ -0,0 +1,60 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.junit.Test;
+
+import static info.belluco.cordova.bbscanner.DuplicateFilter.Sighting.DUPLICATE;
+import static info.belluco.cordova.bbscanner.DuplicateFilter.Sighting.FIRST;
+import static info.belluco.cordova.bbscanner.DuplicateFilter.Sighting.REPEAT;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the fixed dedup window: it starts when a code is reported and does not slide with later
+ * sightings, and codes are remembered least recently seen first.
+ */
+public class DuplicateFilterTest {
+
+    @Test
+    public void reportsACodeOncePerWindowWhileItStaysInView() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, true);
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "a", 0));
+        // Seen at every frame, the sightings do not push the window back
+        for (long now = 33; now < 1000; now += 33) {
+            assertEquals("at " + now, DUPLICATE, filter.check(BarcodeFormat.QR_CODE, "a", now));
+        }
+        assertEquals(REPEAT, filter.check(BarcodeFormat.QR_CODE, "a", 1000));
+        assertEquals(DUPLICATE, filter.check(BarcodeFormat.QR_CODE, "a", 1999));
+        assertEquals(REPEAT, filter.check(BarcodeFormat.QR_CODE, "a", 2000));
+    }
+
+    @Test
+    public void keysOnFormatAndText() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, true);
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "a", 0));
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "b", 0));
+        assertEquals(FIRST, filter.check(BarcodeFormat.DATA_MATRIX, "a", 0));
+        assertEquals(DUPLICATE, filter.check(BarcodeFormat.DATA_MATRIX, "a", 10));
+    }
+
+    @Test
+    public void neverRepeatsWhenRepeatsAreDisabled() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, false);
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "a", 0));
+        assertEquals(DUPLICATE, filter.check(BarcodeFormat.QR_CODE, "a", 5000));
+        filter.clear();
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "a", 5000));
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlySeenCode() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 2, false);
+        filter.check(BarcodeFormat.QR_CODE, "a", 0);
+        filter.check(BarcodeFormat.QR_CODE, "b", 0);
+        // A duplicate sighting of a keeps it, b is now the least recently seen
+        assertEquals(DUPLICATE, filter.check(BarcodeFormat.QR_CODE, "a", 10));
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "c", 20));
+        assertEquals(DUPLICATE, filter.check(BarcodeFormat.QR_CODE, "a", 30));
+        assertEquals(FIRST, filter.check(BarcodeFormat.QR_CODE, "b", 40));
+    }
+}
@@ -0,0 +1,103 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a replay stamps frames with their recorded timing, so the motion gate skips the same
+ * frames however fast the sink takes them.
+ */
+public class ReplayFrameSourceTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+    private static final int FRAMES = 30;
+    /**
+     * 25 fps, the gate rechecks every 100 ms, so every fourth frame of a still image goes through
+     */
+    private static final long INTERVAL_NANOS = 40_000_000L;
+    private static final long RECHECK_MS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void stampsFramesWithTheRecordedTiming() throws Exception {
+        File file = record();
+        ReplayFrameSource source = new ReplayFrameSource(file, ReplayFrameSource.UNPACED, false);
+        List<Long> timestamps = new ArrayList<>();
+        source.start(frame -> timestamps.add(frame.timestampNanos));
+        source.join();
+        source.close();
+
+        assertEquals(FRAMES, timestamps.size());
+        for (int i = 1; i < FRAMES; i++) {
+            assertEquals(INTERVAL_NANOS, timestamps.get(i) - timestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void skipCountsDoNotDependOnTheSpeedOfTheSink() throws Exception {
+        File file = record();
+        int fast = replaySkips(file, 0);
+        int slow = replaySkips(file, 15);
+
+        assertEquals(fast, slow);
+        // Frames 0, 3, 6, ... go through, the rest are still
+        assertEquals(FRAMES - 10, fast);
+    }
+
+    /**
+     * Writes a still image recorded at 25 fps.
+     */
+    private File record() throws Exception {
+        File file = folder.newFile();
+        byte[] data = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((i % WIDTH) * 2);
+        }
+        try (FrameRecording.Writer writer = new FrameRecording.Writer(file, FRAMES)) {
+            for (int i = 0; i < FRAMES; i++) {
+                writer.append(new Frame(data.clone(), WIDTH, HEIGHT, 17, 0, 1_000_000_000L + i * INTERVAL_NANOS));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Replays a recording unpaced through a motion gate, decoding the frames it lets through without
+     * result, as DecodeLoop does.
+     *
+     * @param decodeMillis how long each decode takes
+     * @return the number of frames skipped
+     */
+    private static int replaySkips(File file, long decodeMillis) throws Exception {
+        MotionGate gate = new MotionGate(4, RECHECK_MS);
+        AtomicInteger skipped = new AtomicInteger();
+        ReplayFrameSource source = new ReplayFrameSource(file, ReplayFrameSource.UNPACED, false);
+        source.start(frame -> {
+            if (gate.shouldSkip(frame)) {
+                skipped.incrementAndGet();
+                return true;
+            }
+            try {
+                Thread.sleep(decodeMillis);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            gate.onDecoded(frame, false);
+            return true;
+        });
+        source.join();
+        source.close();
+        return skipped.get();
+    }
+}
@@ -0,0 +1,57 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the snapshot buffer is reused across outputs and does not keep a large one.
+ */
+public class ReusableOutputStreamTest {
+
+    @Test
+    public void reusesTheBufferWhenTheOutputFits() {
+        ReusableOutputStream stream = new ReusableOutputStream(16, 64);
+        stream.reset(32);
+        byte[] buffer = stream.buffer();
+        stream.write(new byte[20], 0, 20);
+        stream.trim();
+        stream.reset(32);
+        assertSame(buffer, stream.buffer());
+        assertEquals(0, stream.size());
+    }
+
+    @Test
+    public void dropsABufferLargerThanTheRetainedSize() {
+        ReusableOutputStream stream = new ReusableOutputStream(16, 64);
+        stream.reset(32);
+        stream.write(new byte[100], 0, 100);
+        assertEquals(100, stream.size());
+        stream.trim();
+        assertEquals(16, stream.capacity());
+        assertEquals(0, stream.size());
+    }
+
+    @Test
+    public void sizesTheBufferUpToTheRetainedSizeOnly() {
+        ReusableOutputStream stream = new ReusableOutputStream(16, 64);
+        stream.reset(1000);
+        byte[] buffer = stream.buffer();
+        assertEquals(64, buffer.length);
+        stream.write(new byte[50], 0, 50);
+        stream.trim();
+        stream.reset(1000);
+        assertSame(buffer, stream.buffer());
+    }
+
+    @Test
+    public void releaseGoesBackToTheInitialSize() {
+        ReusableOutputStream stream = new ReusableOutputStream(16, 64);
+        stream.reset(48);
+        stream.write(new byte[40], 0, 40);
+        stream.release();
+        assertEquals(16, stream.capacity());
+        assertEquals(0, stream.size());
+    }
+}
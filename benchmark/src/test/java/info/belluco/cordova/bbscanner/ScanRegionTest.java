@@ -0,0 +1,119 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.LuminanceSource;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the scan region on synthetic frames: how it resolves to pixels of the upright frame, and
+ * that the luminance stage crops, rotates and downsamples exactly those pixels.
+ */
+public class ScanRegionTest {
+
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void resolvesFractionsToPixels() {
+        ScanRegion region = new ScanRegion(0.25f, 0.5f, 0.5f, 0.25f);
+        assertArrayEquals(new int[] { 200, 500, 400, 250 }, region.resolve(800, 1000));
+    }
+
+    @Test
+    public void clampsToTheFrame() {
+        ScanRegion region = new ScanRegion(-1f, 0.9f, 2f, 0.5f);
+        assertArrayEquals(new int[] { 0, 90, 100, 10 }, region.resolve(100, 100));
+    }
+
+    @Test
+    public void neverResolvesToAnEmptyRegion() {
+        ScanRegion region = new ScanRegion(1f, 1f, 0f, 0f);
+        assertArrayEquals(new int[] { 99, 99, 1, 1 }, region.resolve(100, 100));
+    }
+
+    @Test
+    public void autoFallsBackToTheFramingRect() throws Exception {
+        assertNull(ScanRegion.fromOption("auto"));
+        assertNull(ScanRegion.fromOption(null));
+        ScanRegion region = ScanRegion.fromOption(new JSONObject("{\"left\":0.5,\"width\":0.5}"));
+        assertArrayEquals(new int[] { 50, 0, 50, 100 }, region.resolve(100, 100));
+    }
+
+    @Test
+    public void cropsTheUprightFrameAtEveryRotation() {
+        for (int rotation : new int[] { 0, 90, 180, 270 }) {
+            for (int downsample : new int[] { 1, 2 }) {
+                checkCrop(rotation, downsample);
+            }
+        }
+    }
+
+    /**
+     * Resolves a region on the upright frame, extracts it and compares every pixel with the pixel of
+     * the camera frame that is at that place once the frame is rotated upright.
+     */
+    private static void checkCrop(int rotation, int downsample) {
+        Frame frame = numberedFrame(rotation);
+        boolean rotated = rotation % 180 != 0;
+        int uprightWidth = rotated ? HEIGHT : WIDTH;
+        int uprightHeight = rotated ? WIDTH : HEIGHT;
+        int[] crop = new ScanRegion(0.25f, 0.25f, 0.5f, 0.5f).resolve(uprightWidth, uprightHeight);
+
+        LuminanceStage stage = new LuminanceStage(new BufferPool(1));
+        LuminanceSource source = stage.extract(frame, crop[0], crop[1], crop[2], crop[3], downsample);
+        String label = "rotation " + rotation + ", downsample " + downsample;
+        assertEquals(label, crop[2] / downsample, source.getWidth());
+        assertEquals(label, crop[3] / downsample, source.getHeight());
+        byte[] matrix = source.getMatrix();
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int expected = uprightPixel(frame, crop[0] + x * downsample, crop[1] + y * downsample);
+                assertEquals(label + " at " + x + "," + y, expected, matrix[y * source.getWidth() + x] & 0xff);
+            }
+        }
+        stage.release();
+    }
+
+    /**
+     * @return a frame whose every Y pixel holds its own index, so a misplaced pixel is told apart
+     */
+    private static Frame numberedFrame(int rotation) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            data[i] = (byte) i;
+        }
+        return new Frame(data, WIDTH, HEIGHT, 17, rotation, 0);
+    }
+
+    /**
+     * @return the Y value at a pixel of the frame rotated clockwise by its rotation
+     */
+    private static int uprightPixel(Frame frame, int x, int y) {
+        int sensorX;
+        int sensorY;
+        switch (frame.rotation) {
+            case 90:
+                sensorX = y;
+                sensorY = frame.height - 1 - x;
+                break;
+            case 180:
+                sensorX = frame.width - 1 - x;
+                sensorY = frame.height - 1 - y;
+                break;
+            case 270:
+                sensorX = frame.width - 1 - y;
+                sensorY = x;
+                break;
+            default:
+                sensorX = x;
+                sensorY = y;
+                break;
+        }
+        return frame.data[sensorY * frame.width + sensorX] & 0xff;
+    }
+}
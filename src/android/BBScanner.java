@@ -2,7 +2,7 @@ package info.belluco.cordova.bbscanner;
 
 import android.Manifest;
 import android.content.Intent;
-import android.content.pm.FeatureInfo;
+import android.content.res.Configuration;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Color;
@@ -10,18 +10,16 @@ import android.graphics.Rect;
 import android.hardware.Camera;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
-import android.util.Base64;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.ResultPoint;
-import com.journeyapps.barcodescanner.BarcodeCallback;
-import com.journeyapps.barcodescanner.BarcodeResult;
-import com.journeyapps.barcodescanner.BarcodeView;
-import com.journeyapps.barcodescanner.DefaultDecoderFactory;
+import com.google.zxing.Result;
 import com.journeyapps.barcodescanner.SourceData;
 import com.journeyapps.barcodescanner.camera.CameraInstance;
 import com.journeyapps.barcodescanner.camera.CameraSettings;
@@ -35,23 +33,24 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
 
-public class BBScanner extends CordovaPlugin implements BarcodeCallback {
+public class BBScanner extends CordovaPlugin implements ScannerView.ResultCallback {
 
     /**
      * This variable stores the callback context.
      */
     private CallbackContext callbackContext;
     /**
-     * This variable stores the state of the flash. true if flash is available,
-     * false otherwise.
+     * This variable stores if the camera permission was granted. Revoking a permission kills the
+     * app process, so once granted it stays granted
      */
-    private Boolean flashAvailable = null;
+    private volatile boolean permissionGranted = false;
     /**
      * This variable stores the state of the flash light. true if the flash light is
      * on, false otherwise.
@@ -78,7 +77,7 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     /**
      * This variable stores a BarcodeView object used to display the camera preview and scan barcodes
      */
-    private BarcodeView  mBarcodeView;
+    private ScannerView  mBarcodeView;
     /**
      * This variable stores the state if the camera is currently in preview mode
      */
@@ -86,8 +85,13 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     /**
      * This variable stores the state if the camera is currently scanning
      */
-    private boolean scanning = false;
-    private CallbackContext nextScanCallback;
+    private volatile boolean scanning = false;
+    private volatile CallbackContext nextScanCallback;
+    /**
+     * This variable stores the callback of the last single scan that got its result, only used on
+     * the result thread
+     */
+    private CallbackContext completedScanCallback;
     private boolean shouldScanAgain;
     private boolean denied;
     private boolean authorized;
@@ -95,8 +99,119 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     private boolean oneTime = true;
     private boolean keepDenied = false;
     private boolean appPausedWithActivePreview = false;
-    private BarcodeFormat scanType = null;
-    private boolean multipleScan = false;
+    /**
+     * This variable stores the options and result stages of the last scan call, read by the result
+     * thread. Replaced as a whole, never modified
+     */
+    private volatile ScanSession session = new ScanSession(null, new DecoderConfig(DecoderConfig.DEFAULT_FORMATS),
+            false, false, new SymbolCollector(0), null, null, null);
+    /**
+     * This variable stores the part of the preview frame that is decoded, null for the preview framing rect
+     */
+    private ScanRegion scanRegion = null;
+    /**
+     * This variable stores the maximum number of decodes per second, 0 for no limit
+     */
+    private int targetFps = 0;
+    /**
+     * This variable stores if decodes are spaced further apart when decoding gets slow
+     */
+    private boolean adaptiveFps = false;
+    /**
+     * This variable stores the number of decoder worker threads
+     */
+    private int decodeThreads = 1;
+    /**
+     * This variable stores the downsampling factor of the decoded frames, 1 for full resolution
+     */
+    private int downsample = 1;
+    /**
+     * This variable stores how frames are binarized before decoding
+     */
+    private BinarizerSelector.Strategy binarizer = BinarizerSelector.Strategy.HYBRID;
+    /**
+     * This variable stores the number of frames of the next scan recorded to disk, 0 for none
+     */
+    private int recordFrames = 0;
+    /**
+     * This variable stores the largest mean luminance change of a frame skipped as unchanged, 0 to
+     * decode every frame
+     */
+    private int motionThreshold = 0;
+    /**
+     * This variable stores the longest time an unchanged image goes without being decoded
+     */
+    private long motionRecheckMs = 1000;
+    /**
+     * This variable stores the fraction of the recent peak sharpness a frame needs to be decoded, 0
+     * to decode every frame
+     */
+    private double sharpnessRatio = 0;
+    /**
+     * This variable stores the number of resolutions frames are decoded at, 1 for a single one
+     */
+    private int pyramidLevels = 1;
+    /**
+     * This variable stores the file of the last frame recording, null when nothing was recorded
+     */
+    private volatile File lastRecording = null;
+    /**
+     * This variable stores the encoder of snapshots, guarded by LOCK
+     */
+    private final SnapEncoder snapEncoder = new SnapEncoder();
+    /**
+     * This variable stores the counters and histograms of the scan path
+     */
+    private final ScanMetrics metrics = new ScanMetrics();
+    /**
+     * This variable stores the System.nanoTime() of the last scan() call
+     */
+    private volatile long scanStartNanos = 0;
+    /**
+     * This variable stores if the last scan() call did not deliver a result yet
+     */
+    private volatile boolean awaitingFirstResult = false;
+    /**
+     * This variable stores how long the camera stays open without a session in warm session mode,
+     * 0 when warm sessions are off
+     */
+    private long warmIdleTimeoutMs = 0;
+    private final Handler warmHandler = new Handler(Looper.getMainLooper());
+    private final Runnable releaseWarmCamera = this::releaseWarmCamera;
+    /**
+     * This variable stores the watcher pushing status changes to watchStatus callers
+     */
+    private final StatusWatcher statusWatcher = new StatusWatcher(
+            new String[] { "prepared", "scanning", "previewing", "showing", "lightEnabled", "currentCamera" },
+            values -> {
+                values[0] = boolToNumberString(prepared);
+                values[1] = boolToNumberString(scanning);
+                values[2] = boolToNumberString(previewing);
+                values[3] = boolToNumberString(showing);
+                values[4] = boolToNumberString(lightOn);
+                values[5] = Integer.toString(getCurrentCameraId());
+            });
+    /**
+     * This variable stores the queue every state changing action runs through, one at a time on the
+     * UI thread
+     */
+    private final CommandQueue commands = new CommandQueue(new Handler(Looper.getMainLooper())::post,
+            new ScannerState(state -> {
+                state.prepared = prepared;
+                state.scanning = scanning;
+                state.previewing = previewing;
+                state.showing = showing;
+                state.lightOn = lightOn;
+                state.cameraId = getCurrentCameraId();
+            }));
+    /**
+     * This variable stores the thread the scan results are handled on
+     */
+    private final ResultDispatcher resultDispatcher = new ResultDispatcher();
+    /**
+     * This variable stores the callback of the prepare or scan waiting for the permission dialog
+     */
+    private CallbackContext permissionCallback;
     private final Object LOCK = new Object();
 
     static class BBScannerError {
@@ -105,6 +220,47 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 LIGHT_UNAVAILABLE = 7, OPEN_SETTINGS_UNAVAILABLE = 8;
     }
 
+    @Override
+    protected void pluginInitialize() {
+        cordova.getThreadPool().execute(this::capabilities);
+        // Snapshot files of an earlier run are not referenced by the page any more
+        cordova.getThreadPool().execute(() -> {
+            synchronized (LOCK) {
+                SnapEncoder.deleteOldFiles(cordova.getActivity().getCacheDir(), 0);
+            }
+        });
+
+        // <preference name="BBScannerWarmUp" value="true" /> in config.xml
+        if (preferences.getBoolean("BBScannerWarmUp", false)) {
+            EnumSet<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+            for (String name : preferences.getString("BBScannerWarmUpFormats", "").split(",")) {
+                BarcodeFormat format = DecoderConfig.formatFromName(name.trim());
+                if (format != null) {
+                    formats.add(format);
+                }
+            }
+            DecoderConfig config = new DecoderConfig(formats);
+            cordova.getThreadPool().execute(() -> warmUp(config));
+        }
+    }
+
+    /**
+     * Decodes synthetic barcodes of the given formats, so the first scan does not pay for class
+     * loading and interpreted decoding. Runs on a background thread.
+     *
+     * @param config The formats to warm up.
+     */
+    private void warmUp(DecoderConfig config) {
+        long start = System.nanoTime();
+        try {
+            int decoded = DecoderWarmUp.run(config);
+            metrics.recordWarmUp(System.nanoTime() - start, decoded);
+        } catch (RuntimeException e) {
+            // The warm-up is only an optimization, the first scan pays the cost instead
+            metrics.recordWarmUp(System.nanoTime() - start, 0);
+        }
+    }
+
     @Override
     public boolean execute(final String action, final JSONArray args, final CallbackContext callbackContext)
             throws JSONException {
@@ -112,62 +268,112 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         try {
             switch (action) {
                 case "show":
-                    cordova.getThreadPool().execute(() -> show(callbackContext));
+                    submit(CommandQueue.Kind.SHOW, -1, () -> show(callbackContext), callbackContext);
                 return true;
                 case "hide":
-                    cordova.getThreadPool().execute(() -> hide(callbackContext));
+                    submit(CommandQueue.Kind.HIDE, -1, () -> hide(callbackContext), callbackContext);
                     return true;
                 case "scan":
-                    cordova.getThreadPool().execute(() -> {
+                    submit(CommandQueue.Kind.SCAN, -1, () -> {
                         JSONObject data = (JSONObject) args.opt(0);
-                        // Any format will be accepted by default
-                        scanType = getBarcodeFormatFromString(data.optString("format", ""));
-                        multipleScan = data.optBoolean("multipleScan", false);
+                        // Results of a previous scan belong to its callback
+                        flushResults(true);
+                        session = newSession(data, callbackContext);
+                        scanRegion = ScanRegion.fromOption(data.opt("region"));
+                        targetFps = data.optInt("targetFps", 0);
+                        adaptiveFps = data.optBoolean("adaptiveFps", false);
+                        decodeThreads = data.optInt("decodeThreads", 1);
+                        downsample = data.optInt("downsample", 1);
+                        binarizer = BinarizerSelector.Strategy.fromName(data.optString("binarizer", "hybrid"));
+                        recordFrames = data.optInt("recordFrames", 0);
+                        motionThreshold = data.optInt("motionThreshold", 0);
+                        motionRecheckMs = data.optLong("motionRecheckMs", 1000);
+                        sharpnessRatio = data.optDouble("sharpnessRatio", 0);
+                        pyramidLevels = data.optInt("pyramidLevels", 1);
+                        metrics.increment(ScanMetrics.SCANS);
+                        scanStartNanos = System.nanoTime();
+                        awaitingFirstResult = true;
                         scan(callbackContext);
-                });
+                }, callbackContext);
                 return true;
                 case "pause":
-                    cordova.getThreadPool().execute(() -> pauseScan(callbackContext));
+                    commands.submit(new CommandQueue.Command(CommandQueue.Kind.PAUSE_SCAN, -1,
+                            () -> pauseScan(callbackContext), callbackContext::success));
                 return true;
                 case "resume":
-                    cordova.getThreadPool().execute(() -> resumeScan(callbackContext));
+                    commands.submit(new CommandQueue.Command(CommandQueue.Kind.RESUME_SCAN, -1,
+                            () -> resumeScan(callbackContext), callbackContext::success));
                 return true;
                 case "snap":
-                    cordova.getThreadPool().execute(() -> snap(callbackContext));
+                    JSONObject snapOptions = args.optJSONObject(0);
+                    cordova.getThreadPool().execute(() -> snap(callbackContext, SnapEncoder.Options.fromJson(snapOptions)));
                 return true;
                 case "stop":
-                    cordova.getThreadPool().execute(this::stop);
+                    commands.submit(new CommandQueue.Command(CommandQueue.Kind.STOP, -1, this::stop, null));
                 return true;
                 case "openSettings":
-                    cordova.getThreadPool().execute(() -> openSettings(callbackContext));
+                    submit(CommandQueue.Kind.OTHER, -1, () -> openSettings(callbackContext), callbackContext);
                 return true;
                 case "pausePreview":
-                    cordova.getThreadPool().execute(() -> pausePreview(callbackContext));
+                    submit(CommandQueue.Kind.PAUSE_PREVIEW, -1, () -> pausePreview(callbackContext), callbackContext);
                 return true;
                 case "resumePreview":
-                    cordova.getThreadPool().execute(() -> resumePreview(callbackContext));
+                    submit(CommandQueue.Kind.RESUME_PREVIEW, -1, () -> resumePreview(callbackContext), callbackContext);
                 return true;
                 case "switchCamera":
-                    cordova.getThreadPool().execute(() -> switchCamera(callbackContext, args));
+                    // Without a camera id the camera is toggled
+                    int cameraId = args.optInt(0, CommandQueue.TOGGLE_CAMERA);
+                    submit(CommandQueue.Kind.SWITCH_CAMERA, cameraId < 0 ? CommandQueue.TOGGLE_CAMERA : cameraId,
+                            () -> switchCamera(callbackContext, args), callbackContext);
                 return true;
                 case "enableLight":
-                    cordova.getThreadPool().execute(this::enableLight);
+                    submit(CommandQueue.Kind.ENABLE_LIGHT, -1, () -> enableLight(callbackContext), callbackContext);
                 return true;
                 case "disableLight":
-                    cordova.getThreadPool().execute(this::disableLight);
+                    submit(CommandQueue.Kind.DISABLE_LIGHT, -1, () -> disableLight(callbackContext), callbackContext);
                 return true;
                 case "prepare":
-                    cordova.getThreadPool().execute(() -> cordova.getActivity().runOnUiThread(() -> {
+                    submit(CommandQueue.Kind.PREPARE, -1, () -> {
                         //Always will prepare with back camera
                         currentCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
                                 prepare(callbackContext);
-                    }));
+                    }, callbackContext);
                 return true;
                 case "destroy":
-                    cordova.getThreadPool().execute(() -> destroy(callbackContext));
+                    submit(CommandQueue.Kind.DESTROY, -1, () -> destroy(callbackContext), callbackContext);
                 return true;
                 case "getStatus":
-                    cordova.getThreadPool().execute(() -> getStatus(callbackContext));
+                    submit(CommandQueue.Kind.OTHER, -1, () -> getStatus(callbackContext), callbackContext);
+                return true;
+                case "watchStatus":
+                    statusWatcher.watch(callbackContext);
+                return true;
+                case "unwatchStatus":
+                    statusWatcher.unwatch();
+                    callbackContext.success();
+                return true;
+                case "prewarm":
+                    JSONObject prewarmOptions = args.optJSONObject(0);
+                    long idleTimeoutMs = prewarmOptions != null ? prewarmOptions.optLong("idleTimeoutMs", 30000) : 30000;
+                    submit(CommandQueue.Kind.OTHER, -1, () -> prewarm(callbackContext, idleTimeoutMs), callbackContext);
+                return true;
+                case "ackResults":
+                    int acknowledged = args.optInt(0, 1);
+                    // Results are sent from the result thread, acks join them there to keep the order
+                    resultDispatcher.post(() -> {
+                        ResultQueue queue = session.resultQueue;
+                        if (queue != null) {
+                            queue.ack(acknowledged);
+                        }
+                    });
+                return true;
+                case "decodeImages":
+                    decodeImages(callbackContext, args.optJSONArray(0), args.optJSONObject(1));
+                return true;
+                case "getMetrics":
+                    JSONObject metricsOptions = args.optJSONObject(0);
+                    boolean resetMetrics = metricsOptions != null && metricsOptions.optBoolean("reset", false);
+                    cordova.getThreadPool().execute(() -> getMetrics(callbackContext, resetMetrics));
                 return true;
                 default:
                 return false;
@@ -178,20 +384,63 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         }
     }
 
+    /**
+     * Queues an action whose callback receives the status, also when the action is skipped or
+     * replaced by a later one.
+     *
+     * @param kind            The kind of action.
+     * @param argument        The argument the queue decides on, -1 if none.
+     * @param action          Runs the action.
+     * @param callbackContext The callback of the action.
+     */
+    private void submit(CommandQueue.Kind kind, int argument, Runnable action, CallbackContext callbackContext) {
+        commands.submit(new CommandQueue.Command(kind, argument, action, () -> getStatus(callbackContext)));
+    }
+
     @Override
     public void onPause(boolean multitasking) {
-        if (previewing) {
-            this.appPausedWithActivePreview = true;
-            this.pausePreview(null);
-        }
+        commands.submit(new CommandQueue.Command(CommandQueue.Kind.OTHER, -1, () -> {
+            if (previewing) {
+                this.appPausedWithActivePreview = true;
+                this.pausePreview(null);
+            } else if (!prepared) {
+                // A warm camera is not worth keeping while the app is in the background
+                releaseWarmCamera();
+            }
+        }, null));
+    }
+
+    @Override
+    public void onStop() {
+        // The app went to the background, no snapshot is coming soon
+        releaseSnapBuffer();
+    }
+
+    @Override
+    public void onDestroy() {
+        resultDispatcher.quit();
+    }
+
+    /**
+     * Frees the output buffer of the snapshots. Runs on the thread pool, a snapshot being encoded
+     * holds the lock for a while.
+     */
+    private void releaseSnapBuffer() {
+        cordova.getThreadPool().execute(() -> {
+            synchronized (LOCK) {
+                snapEncoder.release();
+            }
+        });
     }
 
     @Override
     public void onResume(boolean multitasking) {
-        if (this.appPausedWithActivePreview) {
-            this.appPausedWithActivePreview = false;
-            this.resumePreview(null);
-        }
+        commands.submit(new CommandQueue.Command(CommandQueue.Kind.OTHER, -1, () -> {
+            if (this.appPausedWithActivePreview) {
+                this.appPausedWithActivePreview = false;
+                this.resumePreview(null);
+            }
+        }, null));
     }
 
     /**
@@ -201,17 +450,24 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
      * @return true if the device has a camera flash, false otherwise
      */
     private boolean hasFlash() {
-        if (flashAvailable == null) {
-            flashAvailable = false;
-            final PackageManager packageManager = this.cordova.getActivity().getPackageManager();
-            for (final FeatureInfo feature : packageManager.getSystemAvailableFeatures()) {
-                if (PackageManager.FEATURE_CAMERA_FLASH.equalsIgnoreCase(feature.name)) {
-                    flashAvailable = true;
-                    break;
-                }
-            }
-        }
-        return flashAvailable;
+        // The flash is only supported on the back camera
+        return capabilities().hasFlash(Camera.CameraInfo.CAMERA_FACING_BACK);
+    }
+
+    /**
+     * Returns the capabilities of the cameras. They are probed once per process on the thread pool
+     * at initialization, a caller arriving before that probe finished waits for it.
+     *
+     * @return the capabilities of the cameras
+     */
+    private CameraCapabilities capabilities() {
+        return CameraCapabilities.get(cordova.getActivity());
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Cameras can be attached or folded away, probe again if the list of cameras changed
+        cordova.getThreadPool().execute(() -> CameraCapabilities.refresh(cordova.getActivity()));
     }
 
     /**
@@ -258,10 +514,12 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     /**
      *
      * Enable the camera flash
+     *
+     * @param callbackContext the callback to receive the status
      */
-    private void enableLight() {
+    private void enableLight(CallbackContext callbackContext) {
         if (hasPermission()) {
-            switchFlash(true, this.callbackContext);
+            switchFlash(true, callbackContext);
         } else {
             callbackContext.error(BBScannerError.CAMERA_ACCESS_DENIED);
     }
@@ -270,10 +528,12 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     /**
      *
      * Disable the camera flash
+     *
+     * @param callbackContext the callback to receive the status
      */
-    private void disableLight() {
+    private void disableLight(CallbackContext callbackContext) {
         if (hasPermission()) {
-            switchFlash(false, this.callbackContext);
+            switchFlash(false, callbackContext);
         } else {
             callbackContext.error(BBScannerError.CAMERA_ACCESS_DENIED);
         }
@@ -285,34 +545,7 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
      * @return A boolean value of true if the device has a front facing camera, false otherwise.
      */
     private boolean canChangeCamera() {
-        // Get the number of cameras available on the device.
-        int numCameras = Camera.getNumberOfCameras();
-        // If there are no cameras available, return false.
-        if (numCameras <= 0) {
-            return false;
-        }
-
-        // Create a new CameraInfo object.
-            Camera.CameraInfo info = new Camera.CameraInfo();
-        // Loop through all available cameras.
-        try{
-            for (int i = 0; i < numCameras; i++) {
-                // Get the information for each camera.
-                // throw a RuntimeException with the message "Fail to get camera info"
-                //This can happen if the camera service is not available, if another app is using the camera, or if the camera has been disabled by the user.
-            Camera.getCameraInfo(i, info);
-                // Check if the camera is facing front.
-                if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                    // If a front facing camera is found, return true.
-                return true;
-            }
-        }
-        } catch (RuntimeException e) {
-            // Handle the exception appropriately.
-        return false;
-    }
-        // If no front facing camera is found, return false.
-        return false;
+        return capabilities().hasCamera(Camera.CameraInfo.CAMERA_FACING_FRONT);
     }
 
     /**
@@ -381,6 +614,9 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
 
     public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults) {
         oneTime = false;
+        // The callback of the prepare that asked, later actions may have run meanwhile
+        CallbackContext callbackContext = permissionCallback != null ? permissionCallback : this.callbackContext;
+        permissionCallback = null;
         if (requestCode == CAMERA_PERMISSION_REQUEST_CODE) {
             // for each permission check if the user granted/denied them
             // you may want to group the rationale in a single dialog,
@@ -438,8 +674,11 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
      * @return boolean indicating whether the app has the camera permission.
      */
     public boolean hasPermission() {
-        return PermissionHelper.hasPermission(this, Manifest.permission.CAMERA);
-            }
+        if (!permissionGranted) {
+            permissionGranted = PermissionHelper.hasPermission(this, Manifest.permission.CAMERA);
+        }
+        return permissionGranted;
+    }
 
     /**
      * Requests permission to use the camera.
@@ -476,82 +715,322 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     private void setupCamera(CallbackContext callbackContext) {
 
         runOnUiThread(() -> {
-                // Create our Preview view and set it as the content of our activity.
-                mBarcodeView = new BarcodeView(cordova.getActivity());
+            attachScannerView();
+        prepared = true;
+        previewing = true;
 
-            // Configure the decoder
-            ArrayList<BarcodeFormat> formatList = new ArrayList<>(
-                    Arrays.asList(BarcodeFormat.QR_CODE, BarcodeFormat.DATA_MATRIX, BarcodeFormat.UPC_A,
-                            BarcodeFormat.UPC_E, BarcodeFormat.EAN_8, BarcodeFormat.EAN_13, BarcodeFormat.CODE_39,
-                            BarcodeFormat.CODE_93, BarcodeFormat.CODE_128, BarcodeFormat.CODABAR, BarcodeFormat.ITF,
-                            BarcodeFormat.RSS_14, BarcodeFormat.PDF_417, BarcodeFormat.RSS_EXPANDED));
+            if (shouldScanAgain) {
+            scan(callbackContext);
+    }
+        });
+    }
 
-            mBarcodeView.setDecoderFactory(new DefaultDecoderFactory(formatList));
+    /**
+     * Puts the scanner view behind the web view and opens the camera. A view kept by a warm session
+     * is reused when it uses the requested camera, otherwise a new view is created. Must be called
+     * on the UI thread.
+     */
+    private void attachScannerView() {
+        warmHandler.removeCallbacks(releaseWarmCamera);
 
-            // Configure the camera (front/back)
-                CameraSettings settings = new CameraSettings();
-                mBarcodeView.setCameraSettings(settings);
-                settings.setRequestedCameraId(getCurrentCameraId());
+        boolean reuse = mBarcodeView != null && warmIdleTimeoutMs > 0
+                && mBarcodeView.getCameraSettings().getRequestedCameraId() == getCurrentCameraId();
+        if (!reuse) {
+            if (mBarcodeView != null) {
+                mBarcodeView.pause();
+                removeFromParent(mBarcodeView);
+            }
+            // Create our Preview view and set it as the content of our activity.
+            mBarcodeView = new ScannerView(cordova.getActivity());
 
+            // Configure the camera (front/back)
+            CameraSettings settings = new CameraSettings();
+            mBarcodeView.setCameraSettings(settings);
+            settings.setRequestedCameraId(getCurrentCameraId());
+        }
+        mBarcodeView.setScanRegion(scanRegion);
+        mBarcodeView.setDecodePacing(targetFps, adaptiveFps);
+        mBarcodeView.setDecodeThreads(decodeThreads);
+        mBarcodeView.setDownsample(downsample);
+        mBarcodeView.setBinarizer(binarizer);
+        mBarcodeView.setMotionGate(motionThreshold, motionRecheckMs);
+        mBarcodeView.setSharpnessRatio(sharpnessRatio);
+        mBarcodeView.setPyramidLevels(pyramidLevels);
+        mBarcodeView.setMetrics(metrics);
+        mBarcodeView.setResultLooper(resultDispatcher.getLooper());
+
+        // Configure the decoder, only with the readers of the requested formats
+        ScanSession current = this.session;
+        mBarcodeView.setDecoderConfig(current.decoderConfig);
+        mBarcodeView.setMultiSymbol(current.multiSymbol);
+
+        if (mBarcodeView.getParent() == null) {
             FrameLayout.LayoutParams cameraPreviewParams = new FrameLayout.LayoutParams(
                     FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT);
+            ((ViewGroup) webView.getView().getParent()).addView(mBarcodeView, cameraPreviewParams);
+        }
 
-                ((ViewGroup) webView.getView().getParent()).addView(mBarcodeView, cameraPreviewParams);
-
-                cameraPreviewing = true;
-                webView.getView().bringToFront();
-                mBarcodeView.resume();
-        prepared = true;
-        previewing = true;
-
-            if (shouldScanAgain) {
-            scan(callbackContext);
+        cameraPreviewing = true;
+        webView.getView().bringToFront();
+        // Safe to call on a view whose camera is still open
+        mBarcodeView.resume();
     }
+
+    /**
+     * Opens the camera ahead of the scan and turns on warm sessions: destroy() then keeps the view
+     * and the camera open, hidden, until no session used them for the idle timeout.
+     *
+     * @param callbackContext The callback to receive the status.
+     * @param idleTimeoutMs   How long the camera stays open without a session, 0 to turn warm
+     *                        sessions off and release the camera.
+     */
+    private void prewarm(CallbackContext callbackContext, long idleTimeoutMs) {
+        warmIdleTimeoutMs = Math.max(0, idleTimeoutMs);
+        if (warmIdleTimeoutMs == 0) {
+            runOnUiThread(() -> {
+                releaseWarmCamera();
+                getStatus(callbackContext);
+            });
+            return;
+        }
+        if (noCamera()) {
+            callbackContext.error(BBScannerError.BACK_CAMERA_UNAVAILABLE);
+            return;
+        }
+        // Prewarming never prompts, the permission is asked when the scanner is prepared
+        if (!hasPermission()) {
+            callbackContext.error(BBScannerError.CAMERA_ACCESS_DENIED);
+            return;
+        }
+        runOnUiThread(() -> {
+            if (!prepared) {
+                attachScannerView();
+                warmHandler.postDelayed(releaseWarmCamera, warmIdleTimeoutMs);
+            }
+            getStatus(callbackContext);
         });
     }
 
     /**
-     * This method is called when a barcode result is found.
+     * Closes the camera of a warm session and detaches its view, which is kept for the next
+     * session. Does nothing while the scanner is prepared. Must be called on the UI thread.
+     */
+    private void releaseWarmCamera() {
+        warmHandler.removeCallbacks(releaseWarmCamera);
+        if (prepared || mBarcodeView == null) {
+            return;
+        }
+        mBarcodeView.pause();
+        removeFromParent(mBarcodeView);
+        cameraPreviewing = false;
+    }
+
+    /**
+     * This method is called when barcodes are found in a frame, on the result thread.
      *
-     * @param barcodeResult the result found
+     * @param results the barcodes found, a single one unless multi-symbol mode is on
      */
     @Override
-    public void barcodeResult(BarcodeResult barcodeResult) {
-        // Check if the scanning is ongoing, nextScanCallback exists and barcode format matches the scan type
-        if (!this.scanning || this.nextScanCallback == null ||
-                (this.scanType != null && barcodeResult.getBarcodeFormat() != this.scanType)) {
+    public void onScanResult(Result[] results) {
+        // The options of one scan, read once so they cannot change halfway
+        ScanSession current = this.session;
+        // Check if the scanning is ongoing and nextScanCallback exists
+        if (!this.scanning || this.nextScanCallback == null || current.isEnded()) {
+            return;
+        }
+
+        // Every barcode of the frame is reported as one result in multi-symbol mode
+        if (current.multiSymbol) {
+            JSONArray symbols = current.symbolCollector.add(results);
+            if (symbols != null) {
+                recordFirstResult();
+                deliverResult(current, new PluginResult(PluginResult.Status.OK, symbols), null);
+            }
+            return;
+        }
+
+        Result barcodeResult = results[0];
+        // Check if the barcode format was requested
+        if (!current.decoderConfig.getFormats().contains(barcodeResult.getBarcodeFormat())) {
             return;
         }
 
         String barcodeText = barcodeResult.getText();
         // Check if the barcode text exists
         if (barcodeText != null) {
-            // Create a PluginResult with OK status and the barcode text
-            PluginResult result = new PluginResult(PluginResult.Status.OK, barcodeText);
+            // Drop codes that were already sent and are still within the dedup window
+            DuplicateFilter filter = current.multipleScan ? current.duplicateFilter : null;
+            DuplicateFilter.Sighting sighting = filter == null ? DuplicateFilter.Sighting.FIRST
+                    : filter.check(barcodeResult.getBarcodeFormat(), barcodeText, SystemClock.elapsedRealtime());
+            if (sighting == DuplicateFilter.Sighting.DUPLICATE) {
+                return;
+            }
+            boolean repeat = sighting == DuplicateFilter.Sighting.REPEAT;
 
-            // Check if multiple scans are allowed
-            if (this.multipleScan) {
-                result.setKeepCallback(true);
-                // Send the result to nextScanCallback
-                this.nextScanCallback.sendPluginResult(result);
-            } else {
-                // Set scanning to false and stop decoding
+            recordFirstResult();
+
+            // Gather the result with the others when batching
+            if (current.multipleScan && current.resultBatcher != null) {
+                current.resultBatcher.add(barcodeText, barcodeResult.getBarcodeFormat(), System.currentTimeMillis(),
+                        repeat);
+                return;
+            }
+
+            // Create a PluginResult with OK status and the barcode text, as an object telling first
+            // sightings from repeats when duplicates are filtered
+            PluginResult result = filter == null ? new PluginResult(PluginResult.Status.OK, barcodeText)
+                    : new PluginResult(PluginResult.Status.OK, sightingJson(barcodeResult, repeat));
+
+            deliverResult(current, result,
+                    DecoderConfig.formatName(barcodeResult.getBarcodeFormat()) + ":" + barcodeText);
+        } else {
+            // If barcode text does not exist, call scan method
+            CallbackContext scanCallback = this.nextScanCallback;
+            commands.submit(new CommandQueue.Command(CommandQueue.Kind.SCAN, -1, () -> scan(scanCallback), null));
+        }
+    }
+
+    /**
+     * Sends a scan result to the callback of the scan, and ends the scan unless multiple scans are
+     * allowed.
+     *
+     * @param current the session of the scan
+     * @param result  the result to send
+     * @param key     the value the result queue coalesces results by, null to never coalesce it
+     */
+    private void deliverResult(ScanSession current, PluginResult result, String key) {
+        // Check if multiple scans are allowed
+        if (current.multipleScan) {
+            result.setKeepCallback(true);
+            ResultQueue queue = current.resultQueue;
+            if (queue != null) {
+                queue.offer(key, result, 1);
+                return;
+            }
+            // Send the result to the callback of the scan
+            sendScanResult(current.callback, result, 1);
+        } else {
+            // Results of frames decoded before the scan stopped are dropped here
+            CallbackContext scanCallback = current.callback;
+            if (scanCallback == completedScanCallback) {
+                return;
+            }
+            completedScanCallback = scanCallback;
+            // Send the result to nextScanCallback
+            sendScanResult(scanCallback, result, 1);
+            // Set scanning to false and stop decoding, on the UI thread like the actions
+            commands.submit(new CommandQueue.Command(CommandQueue.Kind.OTHER, -1, () -> {
+                if (this.nextScanCallback != scanCallback || !scanning) {
+                    // Another scan started, or the scan was stopped, meanwhile
+                    return;
+                }
                 scanning = false;
                 mBarcodeView.stopDecoding();
-                // Send the result to nextScanCallback and set scanType and callbackContext to null
-                this.nextScanCallback.sendPluginResult(result);
-                this.scanType = null;
                 destroy(callbackContext);
-            }
+            }, null));
+        }
+    }
+
+    /**
+     * @param barcodeResult the barcode
+     * @param repeat        true if the code was already reported earlier in the scan
+     * @return the result as an object with text, format and repeat
+     */
+    private static JSONObject sightingJson(Result barcodeResult, boolean repeat) {
+        JSONObject obj = new JSONObject();
+        try {
+            obj.put("text", barcodeResult.getText());
+            obj.put("format", DecoderConfig.formatName(barcodeResult.getBarcodeFormat()));
+            obj.put("repeat", repeat);
+        } catch (JSONException e) {
+            // Keys are never null, cannot happen
+        }
+        return obj;
+    }
+
+    /**
+     * Sends a batch of results to the scan callback, keeping the callback for the next results.
+     *
+     * @param scanCallback the callback of the scan
+     * @param queue        the result queue of the scan, null to send the batch right away
+     * @param batch        the results, as objects with text, format, timestamp and repeat
+     */
+    private void sendBatch(CallbackContext scanCallback, ResultQueue queue, JSONArray batch) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, batch);
+        result.setKeepCallback(true);
+        if (queue != null) {
+            queue.offer(null, result, batch.length());
         } else {
-            // If barcode text does not exist, call scan method
-            scan(this.nextScanCallback);
+            sendScanResult(scanCallback, result, batch.length());
         }
     }
 
+    /**
+     * Sends scan results over the bridge, timing the send.
+     *
+     * @param scanCallback the callback of the scan
+     * @param result       the result to send
+     * @param count        the number of barcodes in the result
+     */
+    private void sendScanResult(CallbackContext scanCallback, PluginResult result, int count) {
+        long start = System.nanoTime();
+        scanCallback.sendPluginResult(result);
+        metrics.recordBridgeSend(System.nanoTime() - start);
+        metrics.add(ScanMetrics.RESULTS, count);
+    }
 
-    @Override
-    public void possibleResultPoints(List<ResultPoint> list) {
+    /**
+     * Records the time to the first result of the last scan() call, once per call.
+     */
+    private void recordFirstResult() {
+        if (awaitingFirstResult) {
+            awaitingFirstResult = false;
+            metrics.recordTimeToFirstResult(System.nanoTime() - scanStartNanos);
+        }
+    }
+
+    /**
+     * Creates the session of a scan call from its options.
+     *
+     * @param data         the scan options
+     * @param scanCallback the callback of the scan call
+     * @return the session
+     */
+    private ScanSession newSession(JSONObject data, CallbackContext scanCallback) {
+        boolean multipleScan = data.optBoolean("multipleScan", false);
+        long dedupWindowMs = data.optLong("dedupWindowMs", 0);
+        DuplicateFilter duplicateFilter = multipleScan && dedupWindowMs > 0
+                ? new DuplicateFilter(dedupWindowMs, data.optInt("dedupCapacity", 64),
+                        data.optBoolean("dedupRepeat", true))
+                : null;
+        int flowControl = data.optInt("flowControl", 0);
+        ResultQueue resultQueue = multipleScan && flowControl > 0
+                ? new ResultQueue(data.optInt("queueSize", 32),
+                        ResultQueue.Policy.fromName(data.optString("queuePolicy", "dropOldest")),
+                        flowControl, (result, count) -> sendScanResult(scanCallback, result, count), metrics)
+                : null;
+        long batchIntervalMs = data.optLong("batchIntervalMs", 0);
+        ResultBatcher resultBatcher = multipleScan && batchIntervalMs > 0
+                ? new ResultBatcher(batchIntervalMs, data.optInt("batchSize", 50),
+                        batch -> sendBatch(scanCallback, resultQueue, batch), resultDispatcher.getLooper())
+                : null;
+        // Any format will be accepted by default
+        return new ScanSession(scanCallback, DecoderConfig.fromOptions(data), multipleScan,
+                data.optBoolean("multiSymbol", false), new SymbolCollector(data.optInt("expectedCount", 0)),
+                duplicateFilter, resultBatcher, resultQueue);
+    }
+
+    /**
+     * Sends the results of the current scan still waiting in the batcher and in the result queue,
+     * whatever the credits. The flush is posted to the result thread, behind the results already on
+     * their way, so none of them can be sent after it; a task posted there afterwards runs once the
+     * results were sent.
+     *
+     * @param end true if the scan is over, results of its frames still in flight are then dropped
+     */
+    private void flushResults(boolean end) {
+        ScanSession current = this.session;
+        resultDispatcher.post(end ? current::end : current::flush);
     }
 
     /**
@@ -559,7 +1038,7 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
      * @return True if the device don't have any camera.
      */
     private boolean noCamera() {
-        return !this.cordova.getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY);
+        return capabilities().getCameraCount() == 0;
     }
 
     /**
@@ -576,6 +1055,7 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 }
             // Check for permission
                     if (!hasPermission()) {
+                permissionCallback = callbackContext;
                 requestPermission();
                 scanning = false;
                 return;
@@ -636,7 +1116,8 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             this.nextScanCallback = callbackContext;
 
             // Create a barcode callback instance
-            final BarcodeCallback b = this;
+            final ScannerView.ResultCallback b = this;
+            final ScanSession current = this.session;
 
             // Start the barcode scanning
             if (mBarcodeView != null && webView.getView() != null) {
@@ -644,25 +1125,58 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                     webView.getView().setBackgroundColor(Color.argb(1, 0, 0, 0));
                     showing = true;
                     mBarcodeView.setVisibility(View.VISIBLE);
-                        mBarcodeView.decodeContinuous(b);
+                    // Changing the requested formats rebuilds the decoders only, the camera stays open
+                    mBarcodeView.setDecoderConfig(current.decoderConfig);
+                    mBarcodeView.setMultiSymbol(current.multiSymbol);
+                    mBarcodeView.setScanRegion(scanRegion);
+                    mBarcodeView.setDecodePacing(targetFps, adaptiveFps);
+                    mBarcodeView.setDecodeThreads(decodeThreads);
+                    mBarcodeView.setDownsample(downsample);
+                    mBarcodeView.setBinarizer(binarizer);
+                    mBarcodeView.setMotionGate(motionThreshold, motionRecheckMs);
+                    mBarcodeView.setSharpnessRatio(sharpnessRatio);
+                    mBarcodeView.setPyramidLevels(pyramidLevels);
+                    mBarcodeView.setRecording(newRecording());
+                        mBarcodeView.startDecoding(b);
                 });
                     }
                 }
         }
 
+    /**
+     * Creates the writer recording the frames of the scan being started, in the cache directory.
+     *
+     * @return the writer, or null when the scan does not record frames
+     */
+    private FrameRecording.Writer newRecording() {
+        if (recordFrames <= 0) {
+            return null;
+        }
+        File file = new File(cordova.getActivity().getCacheDir(), "bbscanner-" + System.currentTimeMillis() + ".frames");
+        lastRecording = file;
+        return new FrameRecording.Writer(file, recordFrames);
+    }
+
     /**
      * Runs a task on the UI thread.
      *
      * @param runnable The task to run on the UI thread.
      */
     private void runOnUiThread(Runnable runnable) {
-        this.cordova.getActivity().runOnUiThread(runnable);
+        this.cordova.getActivity().runOnUiThread(() -> {
+            runnable.run();
+            // The UI tasks are where most of the state changes
+            statusWatcher.statusChanged();
+        });
     }
 
     /**
      * Stops the scanning process and cancels the current scan if any.
      */
     private void stop() {
+        final CallbackContext scanCallback = this.nextScanCallback;
+        this.nextScanCallback = null;
+        flushResults(true);
         runOnUiThread(() -> {
                 makeOpaque();
                 scanning = false;
@@ -670,9 +1184,11 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                     mBarcodeView.stopDecoding();
                 }
         });
-        if (this.nextScanCallback != null)
-            this.nextScanCallback.error(BBScannerError.SCAN_CANCELED);
-        this.nextScanCallback = null;
+        // Canceled behind the flush, so the pending results of the scan come first
+        if (scanCallback != null) {
+            resultDispatcher.post(() -> scanCallback.error(BBScannerError.SCAN_CANCELED));
+        }
+        releaseSnapBuffer();
     }
 
     /**
@@ -787,7 +1303,7 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 prepare(callbackContext);
             }
             if (shouldFlash) {
-                enableLight();
+                enableLight(callbackContext);
             }
             if (shouldShow) {
                 show(callbackContext);
@@ -812,23 +1328,117 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
 
         boolean canEnableLight = hasFlash() && currentCameraId == Camera.CameraInfo.CAMERA_FACING_BACK;
 
-        HashMap<String, String> status = new HashMap<>();
-        status.put("authorized", boolToNumberString(authorized));
-        status.put("denied", boolToNumberString(denied));
-        status.put("restricted", boolToNumberString(restricted));
-        status.put("prepared", boolToNumberString(prepared));
-        status.put("scanning", boolToNumberString(scanning));
-        status.put("previewing", boolToNumberString(previewing));
-        status.put("showing", boolToNumberString(showing));
-        status.put("lightEnabled", boolToNumberString(lightOn));
-        status.put("canOpenSettings", boolToNumberString(canOpenSettings));
-        status.put("canEnableLight", boolToNumberString(canEnableLight));
-        status.put("canChangeCamera", boolToNumberString(canChangeCamera()));
-        status.put("currentCamera", Integer.toString(getCurrentCameraId()));
-
-        JSONObject obj = new JSONObject(status);
+        // Built straight into the JSON object, getStatus() ends almost every action
+        JSONObject obj = new JSONObject();
+        try {
+            obj.put("authorized", boolToNumberString(authorized));
+            obj.put("denied", boolToNumberString(denied));
+            obj.put("restricted", boolToNumberString(restricted));
+            obj.put("prepared", boolToNumberString(prepared));
+            obj.put("scanning", boolToNumberString(scanning));
+            obj.put("previewing", boolToNumberString(previewing));
+            obj.put("showing", boolToNumberString(showing));
+            obj.put("lightEnabled", boolToNumberString(lightOn));
+            obj.put("canOpenSettings", boolToNumberString(canOpenSettings));
+            obj.put("canEnableLight", boolToNumberString(canEnableLight));
+            obj.put("canChangeCamera", boolToNumberString(canChangeCamera()));
+            obj.put("currentCamera", Integer.toString(getCurrentCameraId()));
+            obj.put("allocationsPerFrame", mBarcodeView != null
+                    ? String.format(Locale.US, "%.2f", mBarcodeView.getAllocationsPerFrame()) : "0");
+            obj.put("warmUpMs", Long.toString(metrics.getWarmUpMillis()));
+        } catch (JSONException e) {
+            // Keys are never null, cannot happen
+        }
         PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
         callbackContext.sendPluginResult(result);
+        // Almost every action ends here once its state changed
+        statusWatcher.statusChanged();
+    }
+
+    /**
+     * Decodes barcodes in stored images, without the camera. Every image is sent to the callback as
+     * soon as it is decoded, then a last message with done set ends the batch.
+     *
+     * @param callbackContext The callback to receive the images.
+     * @param uris            The file paths, file:// or content:// uris of the images.
+     * @param options         The formats, multiSymbol, binarizer and threads options, may be null.
+     */
+    private void decodeImages(final CallbackContext callbackContext, JSONArray uris, JSONObject options) {
+        if (uris == null) {
+            callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+            return;
+        }
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < uris.length(); i++) {
+            paths.add(uris.optString(i, ""));
+        }
+        // The same formats and readers as a scan with these options
+        ImageBatchDecoder decoder = new ImageBatchDecoder(cordova.getActivity().getContentResolver(),
+                DecoderConfig.fromOptions(options), options != null && options.optBoolean("multiSymbol", false),
+                new BinarizerSelector(BinarizerSelector.Strategy.fromName(
+                        options != null ? options.optString("binarizer", "hybrid") : "hybrid")),
+                options != null ? options.optInt("threads", 2) : 2);
+        decoder.decode(paths, new ImageBatchDecoder.Listener() {
+            @Override
+            public void onImage(JSONObject image) {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, image);
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+            }
+
+            @Override
+            public void onDone(int decoded, int failed) {
+                JSONObject done = new JSONObject();
+                try {
+                    done.put("done", true);
+                    done.put("decoded", decoded);
+                    done.put("failed", failed);
+                } catch (JSONException e) {
+                    // Keys are never null, cannot happen
+                }
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, done));
+            }
+        });
+    }
+
+    /**
+     * Sends the metrics of the scan path, along with the device they were measured on.
+     *
+     * @param callbackContext The callback to receive the metrics.
+     * @param reset           True to set the metrics back to zero once they are sent.
+     */
+    private void getMetrics(CallbackContext callbackContext, boolean reset) {
+        JSONObject snapshot = metrics.toJson();
+        try {
+            if (mBarcodeView != null) {
+                snapshot.put("allocationsPerFrame", mBarcodeView.getAllocationsPerFrame());
+                PyramidSelector pyramid = mBarcodeView.getPyramidSelector();
+                if (pyramid != null) {
+                    JSONArray levels = new JSONArray();
+                    int[] scales = pyramid.getScales();
+                    for (int level = 0; level < scales.length; level++) {
+                        levels.put(new JSONObject().put("downsample", scales[level])
+                                .put("tries", pyramid.getTries(level)).put("hits", pyramid.getHits(level)));
+                    }
+                    snapshot.put("pyramid", levels);
+                }
+            }
+            if (lastRecording != null) {
+                snapshot.put("lastRecording", lastRecording.getAbsolutePath());
+            }
+            JSONObject device = new JSONObject();
+            device.put("manufacturer", Build.MANUFACTURER);
+            device.put("model", Build.MODEL);
+            device.put("sdk", Build.VERSION.SDK_INT);
+            device.put("cameras", capabilities().toJson());
+            snapshot.put("device", device);
+        } catch (JSONException e) {
+            // Keys are never null and values are finite, cannot happen
+        }
+        if (reset) {
+            metrics.reset();
+        }
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, snapshot));
     }
 
     /**
@@ -848,6 +1458,9 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
 
         // Check if scanning is in progress
         if (scanning) {
+            // Deliver the batched results before the callback is released
+            flushResults(true);
+
             // Stop the scanning
             runOnUiThread(() -> {
                     scanning = false;
@@ -860,8 +1473,11 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             this.nextScanCallback = null;
         }
 
+        // In warm session mode the view and the camera stay open, hidden, until the idle timeout
+        boolean keepWarm = warmIdleTimeoutMs > 0 && mBarcodeView != null;
+
         // Check if the camera preview is running
-        if (cameraPreviewing) {
+        if (cameraPreviewing && !keepWarm) {
             runOnUiThread(() -> removeFromParent(mBarcodeView));
                 }
 
@@ -870,14 +1486,21 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 switchFlash(false, callbackContext);
         }
 
-        // Close the camera
-        closeCamera();
+        if (keepWarm) {
+            runOnUiThread(() -> {
+                warmHandler.removeCallbacks(releaseWarmCamera);
+                warmHandler.postDelayed(releaseWarmCamera, warmIdleTimeoutMs);
+            });
+        } else {
+            // Close the camera
+            closeCamera();
+        }
 
         // Reset the camera ID
         currentCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
 
-        // Get the status after destruction
-        getStatus(callbackContext);
+        // Get the status after destruction, once the pending results were sent
+        resultDispatcher.post(() -> runOnUiThread(() -> getStatus(callbackContext)));
     }
 
 
@@ -912,13 +1535,13 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         }
         // Set scanning to false
         scanning = false;
+        flushResults(false);
         // Stop decoding barcodes on the UI thread
         runOnUiThread(() -> {
             if (mBarcodeView != null) {
                 mBarcodeView.stopDecoding();
-                // Return success
-                PluginResult result = new PluginResult(PluginResult.Status.OK);
-                callbackContext.sendPluginResult(result);
+                // Return success, behind the pending results
+                resultDispatcher.post(() -> callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK)));
             }
         });
     }
@@ -941,13 +1564,13 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         }
 
         // Get the barcode callback
-        final BarcodeCallback barcodeCallback = this;
+        final ScannerView.ResultCallback barcodeCallback = this;
         // Set scanning to true
         scanning = true;
         // Start decoding barcodes continuously on the UI thread
         runOnUiThread(() -> {
             if (mBarcodeView != null) {
-                mBarcodeView.decodeContinuous(barcodeCallback);
+                mBarcodeView.startDecoding(barcodeCallback);
                 // Return success
                 PluginResult result = new PluginResult(PluginResult.Status.OK);
                 callbackContext.sendPluginResult(result);
@@ -960,8 +1583,9 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
      Snap the camera to take a picture
 
      @param callbackContext The callback context to return the results.
+     @param options The format, quality, maximum size and output mode of the picture.
      */
-    private void snap(CallbackContext callbackContext) {
+    private void snap(CallbackContext callbackContext, SnapEncoder.Options options) {
         // Check if the callback context and barcode view are not null
         if (callbackContext == null || mBarcodeView == null) {
             return;
@@ -1003,14 +1627,24 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                         return;
                     }
 
-                    // Compress the image to PNG and encode to base64 string
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    image.compress(Bitmap.CompressFormat.PNG, 100, baos);
-                    byte[] b = baos.toByteArray();
-                    String imageEncoded = Base64.encodeToString(b, Base64.DEFAULT);
-
-                    // Send the result with the encoded image
-                    PluginResult result = new PluginResult(PluginResult.Status.OK, imageEncoded);
+                    // Scale and compress the image and send it in the requested form
+                    PluginResult result;
+                    switch (options.output) {
+                        case BINARY:
+                            result = new PluginResult(PluginResult.Status.OK, snapEncoder.encodeBytes(image, options));
+                            break;
+                        case FILE:
+                            try {
+                                File file = snapEncoder.encodeToFile(image, options, cordova.getActivity().getCacheDir());
+                                result = new PluginResult(PluginResult.Status.OK, Uri.fromFile(file).toString());
+                            } catch (IOException e) {
+                                result = new PluginResult(PluginResult.Status.ERROR, BBScannerError.UNEXPECTED_ERROR);
+                            }
+                            break;
+                        default:
+                            result = new PluginResult(PluginResult.Status.OK, snapEncoder.encode(image, options));
+                            break;
+                    }
                     callbackContext.sendPluginResult(result);
                 }
             }
@@ -1030,52 +1664,6 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         return bool ? "1" : "0";
     }
 
-    private BarcodeFormat getBarcodeFormatFromString(String format) {
-        BarcodeFormat aFormat = null;
-        switch (format) {
-            case "QR_CODE":
-                aFormat = BarcodeFormat.QR_CODE;
-                break;
-            case "UPC_E":
-                aFormat = BarcodeFormat.UPC_E;
-                break;
-            case "EAN_13":
-                aFormat = BarcodeFormat.EAN_13;
-                break;
-            case "EAN_8":
-                aFormat = BarcodeFormat.EAN_8;
-                break;
-            case "CODE_39":
-                aFormat = BarcodeFormat.CODE_39;
-                break;
-            case "CODE_93":
-                aFormat = BarcodeFormat.CODE_93;
-                break;
-            case "CODE_128":
-                aFormat = BarcodeFormat.CODE_128;
-                break;
-            case "PDF417":
-                aFormat = BarcodeFormat.PDF_417;
-                break;
-            case "ITF":
-                aFormat = BarcodeFormat.ITF;
-                break;
-            case "DATA_MATRIX":
-                aFormat = BarcodeFormat.DATA_MATRIX;
-                break;
-            case "CODABAR":
-                aFormat = BarcodeFormat.CODABAR;
-                break;
-            case "RSS_14":
-                aFormat = BarcodeFormat.RSS_14;
-                break;
-            case "RSS_EXPANDED":
-                aFormat = BarcodeFormat.RSS_EXPANDED;
-                break;
-        }
-        return aFormat;
-    }
-
     public int getCurrentCameraId() {
         return this.currentCameraId;
     }
@@ -0,0 +1,138 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Chooses the binarizer {@link FrameDecoder} turns a luminance image with, and keeps the hit rates
+ * and decode times of both binarizers for the current scan session.
+ *
+ * With the adaptive strategy every frame is decoded with one binarizer and, if nothing was found,
+ * with the other one. The binarizer to start with is the one with the lower expected cost per frame,
+ * computed from the hit rates and decode times seen so far. The global histogram binarizer is much
+ * cheaper and reads well lit 1D codes fine, the hybrid binarizer copes with uneven light and is what
+ * 2D codes usually need.
+ *
+ * All methods are thread-safe, one selector is shared by the workers of a session.
+ */
+final class BinarizerSelector {
+
+    /**
+     * The binarizer strategy of the scan option.
+     */
+    enum Strategy {
+        /** Always the HybridBinarizer, the zxing default */
+        HYBRID,
+        /** Always the GlobalHistogramBinarizer */
+        GLOBAL,
+        /** Both, starting with the one that pays off best */
+        ADAPTIVE;
+
+        /**
+         * @param name the option value, case insensitive
+         * @return the strategy, HYBRID if the name is unknown
+         */
+        static Strategy fromName(String name) {
+            if (name != null) {
+                for (Strategy strategy : values()) {
+                    if (strategy.name().equalsIgnoreCase(name)) {
+                        return strategy;
+                    }
+                }
+            }
+            return HYBRID;
+        }
+    }
+
+    /**
+     * Every this many frames the adaptive strategy starts with the other binarizer, so the
+     * statistics of both stay current
+     */
+    private static final int EXPLORE_INTERVAL = 16;
+    /**
+     * The weight of the last decode in the average decode times
+     */
+    private static final double AVERAGE_WEIGHT = 0.1;
+
+    private final Strategy strategy;
+    private long globalTries = 0;
+    private long globalHits = 0;
+    private long hybridTries = 0;
+    private long hybridHits = 0;
+    private double globalNanos = 0;
+    private double hybridNanos = 0;
+    private long decisions = 0;
+
+    /**
+     * @param strategy the binarizer strategy of the session
+     */
+    BinarizerSelector(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Tells which binarizer the adaptive strategy starts with for the next frame.
+     *
+     * @return true for the global histogram binarizer, false for the hybrid binarizer
+     */
+    synchronized boolean startWithGlobal() {
+        if (strategy != Strategy.ADAPTIVE) {
+            return strategy == Strategy.GLOBAL;
+        }
+        // Without timings yet assume the hybrid binarizer costs twice as much
+        double costGlobal = globalNanos > 0 ? globalNanos : 1;
+        double costHybrid = hybridNanos > 0 ? hybridNanos : 2 * costGlobal;
+        double expectedGlobalFirst = costGlobal + (1 - hitRate(globalHits, globalTries)) * costHybrid;
+        double expectedHybridFirst = costHybrid + (1 - hitRate(hybridHits, hybridTries)) * costGlobal;
+        boolean globalFirst = expectedGlobalFirst <= expectedHybridFirst;
+        if (++decisions % EXPLORE_INTERVAL == 0) {
+            globalFirst = !globalFirst;
+        }
+        return globalFirst;
+    }
+
+    /**
+     * Records one decode attempt.
+     *
+     * @param global true for the global histogram binarizer, false for the hybrid binarizer
+     * @param found  true if a barcode was found
+     * @param nanos  the time the attempt took
+     */
+    synchronized void record(boolean global, boolean found, long nanos) {
+        if (global) {
+            globalTries++;
+            globalHits += found ? 1 : 0;
+            globalNanos = globalNanos == 0 ? nanos : globalNanos + AVERAGE_WEIGHT * (nanos - globalNanos);
+        } else {
+            hybridTries++;
+            hybridHits += found ? 1 : 0;
+            hybridNanos = hybridNanos == 0 ? nanos : hybridNanos + AVERAGE_WEIGHT * (nanos - hybridNanos);
+        }
+    }
+
+    /**
+     * @param global true for the global histogram binarizer, false for the hybrid binarizer
+     * @return the share of attempts with this binarizer that found a barcode, 0 before any attempt
+     */
+    synchronized double getHitRate(boolean global) {
+        long tries = global ? globalTries : hybridTries;
+        long hits = global ? globalHits : hybridHits;
+        return tries == 0 ? 0 : (double) hits / tries;
+    }
+
+    /**
+     * @param global true for the global histogram binarizer, false for the hybrid binarizer
+     * @return the number of attempts with this binarizer
+     */
+    synchronized long getTries(boolean global) {
+        return global ? globalTries : hybridTries;
+    }
+
+    /**
+     * Hit rate with one hit and one miss added, so a binarizer tried a few times is not written off.
+     */
+    private static double hitRate(long hits, long tries) {
+        return (hits + 1.0) / (tries + 2.0);
+    }
+}
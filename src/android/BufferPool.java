@@ -0,0 +1,74 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small pool of byte arrays shared by the decoder workers, so the luminance of a frame is built in
+ * an array that an earlier frame already used.
+ *
+ * Only arrays of the exact requested length are handed out again, an array of another length is
+ * dropped when it is released. All methods are thread-safe.
+ */
+final class BufferPool {
+
+    /**
+     * This variable stores the maximum number of arrays kept for reuse
+     */
+    private final int capacity;
+    private final ArrayDeque<byte[]> free;
+    /**
+     * This variable stores the number of arrays the pool had to allocate
+     */
+    private final AtomicLong allocations = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of arrays kept for reuse, usually one per worker
+     */
+    BufferPool(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.free = new ArrayDeque<>(this.capacity);
+    }
+
+    /**
+     * Takes an array from the pool, allocating one when none of the right length is free.
+     *
+     * @param length the length of the array
+     * @return an array of exactly this length, with undefined contents
+     */
+    byte[] acquire(int length) {
+        synchronized (free) {
+            byte[] buffer = free.pollFirst();
+            if (buffer != null && buffer.length == length) {
+                return buffer;
+            }
+            // The frame size changed, the old arrays are of no use any more
+            free.clear();
+        }
+        allocations.incrementAndGet();
+        return new byte[length];
+    }
+
+    /**
+     * Gives an array back to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer the array, may be null
+     */
+    void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (free) {
+            if (free.size() < capacity) {
+                free.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of arrays allocated since the pool was created
+     */
+    long getAllocations() {
+        return allocations.get();
+    }
+}
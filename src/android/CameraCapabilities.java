@@ -0,0 +1,296 @@
+package info.belluco.cordova.bbscanner;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Size;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the cameras of the device can do, probed through the camera2 characteristics, which unlike
+ * the legacy Camera API does not open any camera. Before API 21, or when camera2 fails, only the
+ * facings the legacy API reports are known, with the flash of the back camera from the system
+ * features.
+ *
+ * The probe is the expensive part, it talks to the camera service for every camera. It runs once per
+ * process, the result is shared by every instance of the plugin, and again only when the list of
+ * cameras changed. A probed instance is immutable and can be read from any thread.
+ */
+final class CameraCapabilities {
+
+    /**
+     * The capabilities of one camera.
+     */
+    static final class CameraInfo {
+        /**
+         * This variable stores the camera2 id of the camera
+         */
+        final String id;
+        /**
+         * This variable stores the direction the camera faces, as a Camera.CameraInfo.CAMERA_FACING_*
+         * constant like the rest of the plugin, -1 for an external camera
+         */
+        final int facing;
+        /**
+         * This variable stores if the camera has a flash unit
+         */
+        final boolean flash;
+        /**
+         * This variable stores the preview sizes, as {width, height} pairs
+         */
+        final List<int[]> previewSizes;
+        /**
+         * This variable stores the maximum digital zoom, the zoom range is 1 to this value. The
+         * legacy Camera API the preview runs on has no optical zoom ratios below 1
+         */
+        final float maxZoom;
+
+        CameraInfo(String id, int facing, boolean flash, List<int[]> previewSizes, float maxZoom) {
+            this.id = id;
+            this.facing = facing;
+            this.flash = flash;
+            this.previewSizes = Collections.unmodifiableList(previewSizes);
+            this.maxZoom = maxZoom;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("facing", facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? "front"
+                    : facing == Camera.CameraInfo.CAMERA_FACING_BACK ? "back" : "external");
+            json.put("flash", flash);
+            JSONArray sizes = new JSONArray();
+            for (int[] size : previewSizes) {
+                sizes.put(size[0] + "x" + size[1]);
+            }
+            json.put("previewSizes", sizes);
+            json.put("maxZoom", (double) maxZoom);
+            return json;
+        }
+    }
+
+    private static final Object PROBE_LOCK = new Object();
+    /**
+     * This variable stores the last probe of the process, null until probed
+     */
+    private static volatile CameraCapabilities cached = null;
+
+    /**
+     * This variable stores the ids the camera service listed at probe time, to tell when cameras
+     * were attached or removed
+     */
+    private final List<String> ids;
+    private final List<CameraInfo> cameras;
+
+    private CameraCapabilities(List<String> ids, List<CameraInfo> cameras) {
+        this.ids = ids;
+        this.cameras = Collections.unmodifiableList(cameras);
+    }
+
+    /**
+     * Returns the capabilities, probing them if no probe was made in this process yet. A caller
+     * arriving during a probe waits for it instead of probing again.
+     *
+     * @param context any context
+     * @return the capabilities of the cameras
+     */
+    static CameraCapabilities get(Context context) {
+        CameraCapabilities probed = cached;
+        if (probed != null) {
+            return probed;
+        }
+        synchronized (PROBE_LOCK) {
+            if (cached == null) {
+                cached = probe(context);
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Probes again if cameras were attached or removed since the last probe. Listing the cameras is
+     * cheap, but call it off the UI thread.
+     *
+     * @param context any context
+     */
+    static void refresh(Context context) {
+        synchronized (PROBE_LOCK) {
+            if (cached == null || !cached.ids.equals(cameraIds(context))) {
+                cached = probe(context);
+            }
+        }
+    }
+
+    /**
+     * Queries the camera service. Takes a few milliseconds per camera, call it off the UI thread.
+     *
+     * @param context any context
+     * @return the capabilities, without cameras if the camera service is not available
+     */
+    private static CameraCapabilities probe(Context context) {
+        List<String> ids = cameraIds(context);
+        List<CameraInfo> cameras = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                cameras = Camera2Probe.probe(context);
+            } catch (Exception e) {
+                // CameraAccessException or a RuntimeException of a broken camera HAL, fall back to
+                // the facings the legacy API knows
+            }
+        }
+        return new CameraCapabilities(ids, cameras != null ? cameras : probeLegacy(context));
+    }
+
+    /**
+     * @return the ids of the cameras, from camera2 when available
+     */
+    private static List<String> cameraIds(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                return Camera2Probe.cameraIds(context);
+            } catch (Exception e) {
+                // Fall back to the legacy camera indices
+            }
+        }
+        List<String> ids = new ArrayList<>();
+        try {
+            for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+                ids.add(Integer.toString(i));
+            }
+        } catch (RuntimeException e) {
+            // No camera service at all
+        }
+        return ids;
+    }
+
+    /**
+     * @return the cameras the legacy API reports, the back one with the flash of the system features
+     */
+    private static List<CameraInfo> probeLegacy(Context context) {
+        List<CameraInfo> cameras = new ArrayList<>();
+        boolean flash = context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH);
+        try {
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+                Camera.getCameraInfo(i, info);
+                cameras.add(new CameraInfo(Integer.toString(i), info.facing,
+                        flash && info.facing == Camera.CameraInfo.CAMERA_FACING_BACK,
+                        Collections.<int[]>emptyList(), 1));
+            }
+        } catch (RuntimeException e) {
+            // No camera service at all, report no cameras
+            cameras.clear();
+        }
+        return cameras;
+    }
+
+    /**
+     * The camera2 part of the probe, in a class of its own so that devices before API 21 never load
+     * the camera2 classes.
+     */
+    private static final class Camera2Probe {
+
+        static List<String> cameraIds(Context context) throws Exception {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            return Arrays.asList(manager.getCameraIdList());
+        }
+
+        static List<CameraInfo> probe(Context context) throws Exception {
+            List<CameraInfo> cameras = new ArrayList<>();
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            for (String id : manager.getCameraIdList()) {
+                cameras.add(probeCamera(id, manager.getCameraCharacteristics(id)));
+            }
+            return cameras;
+        }
+
+        private static CameraInfo probeCamera(String id, CameraCharacteristics characteristics) {
+            Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            int facing = -1;
+            if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT) {
+                facing = Camera.CameraInfo.CAMERA_FACING_FRONT;
+            } else if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_BACK) {
+                facing = Camera.CameraInfo.CAMERA_FACING_BACK;
+            }
+
+            Boolean flash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+
+            List<int[]> previewSizes = new ArrayList<>();
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size[] sizes = map != null ? map.getOutputSizes(SurfaceTexture.class) : null;
+            if (sizes != null) {
+                for (Size size : sizes) {
+                    previewSizes.add(new int[] { size.getWidth(), size.getHeight() });
+                }
+            }
+
+            Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+            return new CameraInfo(id, facing, flash != null && flash, previewSizes, maxZoom != null ? maxZoom : 1);
+        }
+    }
+
+    /**
+     * @return the number of cameras
+     */
+    int getCameraCount() {
+        return cameras.size();
+    }
+
+    /**
+     * @param facing a Camera.CameraInfo.CAMERA_FACING_* constant
+     * @return true if a camera faces this direction
+     */
+    boolean hasCamera(int facing) {
+        return camera(facing) != null;
+    }
+
+    /**
+     * @param facing a Camera.CameraInfo.CAMERA_FACING_* constant
+     * @return true if the first camera facing this direction has a flash unit
+     */
+    boolean hasFlash(int facing) {
+        CameraInfo camera = camera(facing);
+        return camera != null && camera.flash;
+    }
+
+    /**
+     * @param facing a Camera.CameraInfo.CAMERA_FACING_* constant
+     * @return the first camera facing this direction, the one the legacy API opens, or null
+     */
+    CameraInfo camera(int facing) {
+        for (CameraInfo camera : cameras) {
+            if (camera.facing == facing) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the capabilities of all cameras
+     */
+    JSONArray toJson() {
+        JSONArray json = new JSONArray();
+        try {
+            for (CameraInfo camera : cameras) {
+                json.put(camera.toJson());
+            }
+        } catch (JSONException e) {
+            // Keys are never null and values are finite, cannot happen
+        }
+        return json;
+    }
+}
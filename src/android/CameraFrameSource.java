@@ -0,0 +1,56 @@
+package info.belluco.cordova.bbscanner;
+
+import com.journeyapps.barcodescanner.SourceData;
+import com.journeyapps.barcodescanner.camera.CameraInstance;
+import com.journeyapps.barcodescanner.camera.PreviewCallback;
+
+/**
+ * The preview frames of an open camera. Frames are requested back to back, the next one as soon as
+ * the sink took the last one, so the sink always gets a fresh frame.
+ */
+final class CameraFrameSource implements FrameSource, PreviewCallback {
+
+    private final CameraInstance cameraInstance;
+    private final int rotation;
+    private volatile Sink sink;
+
+    /**
+     * @param cameraInstance the open camera
+     */
+    CameraFrameSource(CameraInstance cameraInstance) {
+        this.cameraInstance = cameraInstance;
+        this.rotation = cameraInstance.getCameraRotation();
+    }
+
+    @Override
+    public void start(Sink sink) {
+        this.sink = sink;
+        cameraInstance.requestPreview(this);
+    }
+
+    @Override
+    public void stop() {
+        sink = null;
+    }
+
+    @Override
+    public void onPreview(SourceData sourceData) {
+        // Called on the camera thread
+        Sink target = sink;
+        if (target == null) {
+            return;
+        }
+        Frame frame = new Frame(sourceData.getData(), sourceData.getDataWidth(), sourceData.getDataHeight(),
+                sourceData.getImageFormat(), rotation, System.nanoTime());
+        if (target.onFrame(frame)) {
+            cameraInstance.requestPreview(this);
+        }
+    }
+
+    @Override
+    public void onPreviewError(Exception e) {
+        if (sink != null) {
+            cameraInstance.requestPreview(this);
+        }
+    }
+}
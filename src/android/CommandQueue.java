@@ -0,0 +1,217 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the commands of the plugin one at a time, in the order they were submitted, on one executor.
+ *
+ * The plugin submits every state changing action here, and runs the queue on the UI thread, so the
+ * state flags and the scanner view are only ever touched by one thread and a command sees the
+ * effects of the previous one.
+ *
+ * Before they run, commands are coalesced: a command of a {@link Kind#group() group} submitted right
+ * after a pending command of the same group replaces it, so pause, resume, pause or a burst of
+ * switches to a given camera touch the camera once. Camera toggles depend on the camera before them,
+ * so a toggle only replaces a pending toggle by parity: the two cancel out into
+ * {@link #KEEP_CAMERA}, and a toggle after a switch to a given camera is queued behind it. Then a
+ * command that would not change the state, according to the {@link Filter}, is skipped. Superseded
+ * and skipped commands are answered through their skip action once the command that replaced them
+ * ran, so no callback is lost.
+ *
+ * Plain Java, thread-safe.
+ */
+final class CommandQueue {
+
+    /**
+     * The kinds of commands, as far as coalescing is concerned.
+     */
+    enum Kind {
+        PREPARE(null), SCAN(null), STOP(null), DESTROY(null), SHOW("visibility"), HIDE("visibility"),
+        PAUSE_PREVIEW("preview"), RESUME_PREVIEW("preview"), PAUSE_SCAN("decoding"), RESUME_SCAN("decoding"),
+        ENABLE_LIGHT("light"), DISABLE_LIGHT("light"), SWITCH_CAMERA("camera"), OTHER(null);
+
+        private final String group;
+
+        Kind(String group) {
+            this.group = group;
+        }
+
+        /**
+         * @return the group of commands that set the same part of the state, null if commands of
+         * this kind are never coalesced
+         */
+        String group() {
+            return group;
+        }
+    }
+
+    /**
+     * The argument of a SWITCH_CAMERA command that toggles between the back and the front camera
+     */
+    static final int TOGGLE_CAMERA = -1;
+    /**
+     * The argument of the SWITCH_CAMERA command two toggles cancel out into, which leaves the
+     * camera as it is
+     */
+    static final int KEEP_CAMERA = -2;
+
+    /**
+     * Tells if a command would leave the state as it is.
+     */
+    interface Filter {
+        /**
+         * Called on the executor, right before the command would run.
+         *
+         * @param command the command
+         * @return true to skip the command
+         */
+        boolean isRedundant(Command command);
+    }
+
+    /**
+     * A command and the way to answer it when it does not run.
+     */
+    static final class Command {
+        final Kind kind;
+        /**
+         * This variable stores the argument of the command, like the camera id of SWITCH_CAMERA,
+         * or -1
+         */
+        final int argument;
+        private final Runnable action;
+        private final Runnable skip;
+        /**
+         * This variable stores the commands this one replaced, answered once it ran
+         */
+        private final List<Command> superseded = new ArrayList<>();
+
+        /**
+         * @param kind     the kind of command
+         * @param argument the argument the filter needs, or -1
+         * @param action   runs the command
+         * @param skip     answers the command when it is skipped or superseded, may be null
+         */
+        Command(Kind kind, int argument, Runnable action, Runnable skip) {
+            this.kind = kind;
+            this.argument = argument;
+            this.action = action;
+            this.skip = skip;
+        }
+    }
+
+    private final Executor executor;
+    private final Filter filter;
+    private final ArrayDeque<Command> pending = new ArrayDeque<>();
+    /**
+     * This variable stores if a drain is posted or running on the executor
+     */
+    private boolean draining = false;
+
+    /**
+     * @param executor runs the commands, must run tasks one at a time, in order
+     * @param filter   tells which commands can be skipped
+     */
+    CommandQueue(Executor executor, Filter filter) {
+        this.executor = executor;
+        this.filter = filter;
+    }
+
+    /**
+     * Queues a command.
+     *
+     * @param command the command
+     */
+    void submit(Command command) {
+        synchronized (pending) {
+            Command last = pending.peekLast();
+            String group = command.kind.group();
+            Command replacement = last != null && group != null && group.equals(last.kind.group())
+                    ? coalesce(last, command) : null;
+            if (replacement != null) {
+                pending.pollLast();
+                replacement.superseded.addAll(last.superseded);
+                last.superseded.clear();
+                replacement.superseded.add(last);
+                if (replacement != command) {
+                    replacement.superseded.add(command);
+                }
+                command = replacement;
+            }
+            pending.addLast(command);
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        executor.execute(this::drainOne);
+    }
+
+    /**
+     * Decides what replaces a pending command of the same group.
+     *
+     * @param last    the last pending command
+     * @param command the command submitted after it
+     * @return the command to queue instead of both, or null to queue the new command behind the
+     * pending one
+     */
+    private static Command coalesce(Command last, Command command) {
+        if (command.kind != Kind.SWITCH_CAMERA || command.argument != TOGGLE_CAMERA) {
+            // The newest command sets this part of the state whatever came before it
+            return command;
+        }
+        switch (last.argument) {
+            case TOGGLE_CAMERA:
+                return new Command(Kind.SWITCH_CAMERA, KEEP_CAMERA, () -> { }, null);
+            case KEEP_CAMERA:
+                return command;
+            default:
+                // Toggling after a switch to a given camera depends on that switch
+                return null;
+        }
+    }
+
+    /**
+     * @return the number of commands waiting to run
+     */
+    int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Runs the next command, then posts the next drain, so other tasks of the executor can run in
+     * between commands.
+     */
+    private void drainOne() {
+        Command command;
+        synchronized (pending) {
+            command = pending.pollFirst();
+            if (command == null) {
+                draining = false;
+                return;
+            }
+        }
+        try {
+            if (filter.isRedundant(command)) {
+                answer(command);
+            } else {
+                command.action.run();
+            }
+            for (Command superseded : command.superseded) {
+                answer(superseded);
+            }
+        } finally {
+            executor.execute(this::drainOne);
+        }
+    }
+
+    private static void answer(Command command) {
+        if (command.skip != null) {
+            command.skip.run();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package info.belluco.cordova.bbscanner;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Continuous decoding of preview frames, used instead of the zxing-embedded DecoderThread.
+ *
+ * Frames come from a {@link FrameSource}, the camera or a recording, and are offered to a
+ * {@link DecodeScheduler}, which decides when, and on which frame, each decoder runs. The gates and
+ * the decode of every frame are those of a {@link FramePipeline}, shared with the replay of
+ * recordings. Results are delivered on the result looper, in frame order, like the BarcodeView does.
+ */
+class DecodeLoop implements FrameSource.Sink, DecodeScheduler.ResultListener<Result[]>,
+        DecodeScheduler.FrameListener<Result[]> {
+
+    private final FrameSource frameSource;
+    private final FramePipeline pipeline;
+    private final List<LuminanceStage> stages = new ArrayList<>();
+    private final ScannerView.ResultCallback callback;
+    private final ScanMetrics metrics;
+    private final DecodeScheduler<Result[]> scheduler;
+    private final Handler resultHandler;
+    /**
+     * This variable is only written on the main thread, and read on the result thread
+     */
+    private volatile boolean running = false;
+
+    /**
+     * @param frameSource    the source of the frames
+     * @param decoders       one decoder per worker thread
+     * @param cropRect       the part of the rotated preview frame to decode
+     * @param downsample     keep one pixel out of this many in each direction, 1 for full resolution
+     * @param callback       receives the results on the result looper
+     * @param targetFps      the maximum number of decodes per second, 0 for no limit
+     * @param adaptive       true to back off when decoding gets slow
+     * @param metrics        records the frames and decode times
+     * @param resultLooper   the looper the callback runs on, null for the main looper
+     * @param motionGate     skips frames that did not change since the last one without result, null
+     *                       to decode every frame
+     * @param sharpnessFilter rejects frames too blurry to decode, null to decode every frame
+     * @param pyramid        chooses the resolution frames are decoded at first, null to decode at
+     *                       the downsample resolution only
+     */
+    DecodeLoop(FrameSource frameSource, List<FrameDecoder> decoders, Rect cropRect, int downsample,
+               ScannerView.ResultCallback callback, int targetFps, boolean adaptive, ScanMetrics metrics,
+               Looper resultLooper, MotionGate motionGate, SharpnessFilter sharpnessFilter,
+               PyramidSelector pyramid) {
+        this.frameSource = frameSource;
+        this.resultHandler = new Handler(resultLooper != null ? resultLooper : Looper.getMainLooper());
+        this.pipeline = new FramePipeline(cropRect != null
+                ? new int[] { cropRect.left, cropRect.top, cropRect.width(), cropRect.height() } : null,
+                downsample, decoders.size(), motionGate, sharpnessFilter, pyramid);
+        this.callback = callback;
+        this.metrics = metrics;
+        List<DecodeScheduler.FrameHandler<Result[]>> handlers = new ArrayList<>();
+        for (final FrameDecoder decoder : decoders) {
+            final LuminanceStage[] levelStages = pipeline.newStages();
+            Collections.addAll(stages, levelStages);
+            handlers.add(frame -> pipeline.decode(decoder, levelStages, frame));
+        }
+        this.scheduler = new DecodeScheduler<>(handlers, this, targetFps, adaptive);
+        this.scheduler.setFrameListener(this);
+    }
+
+    /**
+     * Starts reading frames. Must be called on the main thread.
+     */
+    void start() {
+        running = true;
+        scheduler.start();
+        frameSource.start(this);
+    }
+
+    /**
+     * Stops reading frames and drops results that are still in flight. Must be called on the main
+     * thread.
+     */
+    void stop() {
+        running = false;
+        frameSource.stop();
+        scheduler.stop();
+    }
+
+    /**
+     * @return the average number of objects allocated to build the luminance of a frame, counting
+     * pooled arrays that had to be allocated
+     */
+    double getAllocationsPerFrame() {
+        long frames = 0;
+        long allocations = pipeline.getPoolAllocations();
+        for (LuminanceStage stage : stages) {
+            frames += stage.getFrames();
+            allocations += stage.getAllocations();
+        }
+        return frames == 0 ? 0 : (double) allocations / frames;
+    }
+
+    @Override
+    public boolean onFrame(Frame frame) {
+        // Called on the thread of the source. Keep the source streaming while the scheduler runs so
+        // the slot always holds a fresh frame when the decoder becomes free.
+        metrics.increment(ScanMetrics.FRAMES_RECEIVED);
+        switch (pipeline.admit(frame)) {
+            case UNCHANGED:
+                metrics.increment(ScanMetrics.FRAMES_SKIPPED);
+                return true;
+            case BLURRY:
+                metrics.increment(ScanMetrics.FRAMES_BLURRY);
+                return true;
+            case SHARP:
+                metrics.increment(ScanMetrics.FRAMES_SHARP);
+                break;
+            default:
+                break;
+        }
+        return scheduler.submit(frame);
+    }
+
+    @Override
+    public void onFrameDropped() {
+        metrics.increment(ScanMetrics.FRAMES_DROPPED);
+    }
+
+    @Override
+    public void onFrameDecoded(Result[] results, long durationNanos) {
+        metrics.increment(ScanMetrics.FRAMES_DECODED);
+        metrics.recordDecode(results != null && results.length > 0 ? results[0].getBarcodeFormat() : null,
+                durationNanos);
+    }
+
+    @Override
+    public void onResult(Frame frame, final Result[] results) {
+        resultHandler.post(() -> {
+            if (running) {
+                callback.onScanResult(results);
+            }
+        });
+    }
+}
@@ -0,0 +1,297 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.List;
+
+/**
+ * Paces decode work between the frame producer (the camera) and a bounded pool of decoder workers.
+ *
+ * Frames are handed over through a single slot: a new frame replaces the one waiting, so the
+ * decoders always work on the most recent frame and never on a backlog. Decodes are spaced by the
+ * target frame rate and, in adaptive mode, also by the measured decode time so that the workers
+ * leave CPU headroom for the camera, the preview and the UI.
+ *
+ * With more than one worker consecutive frames are decoded in parallel. Results are still delivered
+ * in frame order: once a frame produced a result, results of older frames that finish later are
+ * dropped.
+ *
+ * This class has no Android dependencies.
+ *
+ * @param <R> the type of the decode result
+ */
+final class DecodeScheduler<R> {
+
+    /**
+     * Decodes a frame on a worker thread. Every worker has its own handler, so handlers may keep
+     * state that is not thread-safe, such as a zxing reader.
+     */
+    interface FrameHandler<R> {
+        /**
+         * @param frame the frame to decode
+         * @return the result, or null if nothing was found in the frame
+         */
+        R decode(Frame frame);
+    }
+
+    /**
+     * Receives the results, in frame order, on the worker thread that produced them.
+     */
+    interface ResultListener<R> {
+        void onResult(Frame frame, R result);
+    }
+
+    /**
+     * Observes the frames going through the scheduler, for metrics. Called on the thread that
+     * submitted or decoded the frame, implementations must be quick and thread-safe.
+     */
+    interface FrameListener<R> {
+        /**
+         * A waiting frame was replaced by a newer one.
+         */
+        void onFrameDropped();
+
+        /**
+         * @param result        the result of the frame, null if nothing was found
+         * @param durationNanos the time the handler spent on the frame
+         */
+        void onFrameDecoded(R result, long durationNanos);
+    }
+
+    /**
+     * Largest fraction of wall time the workers may be busy in adaptive mode
+     */
+    static final double ADAPTIVE_MAX_BUSY_FRACTION = 0.75;
+    /**
+     * Weight of the newest sample in the moving average of the decode time
+     */
+    private static final double DECODE_TIME_SMOOTHING = 0.2;
+
+    private final List<FrameHandler<R>> handlers;
+    private final ResultListener<R> listener;
+    /**
+     * This variable stores the observer of the frames, null when there is none
+     */
+    private volatile FrameListener<R> frameListener;
+    private final long targetIntervalNanos;
+    private final boolean adaptive;
+    private final Object lock = new Object();
+
+    /**
+     * This variable stores the frame waiting to be decoded, null if there is none
+     */
+    private Frame pending;
+    /**
+     * This variable stores the sequence number given to the next frame taken by a worker
+     */
+    private long nextSequence;
+    /**
+     * This variable stores the sequence number of the last frame whose result was delivered
+     */
+    private long lastDeliveredSequence = -1;
+    /**
+     * This variable stores the System.nanoTime() before which no new decode is started
+     */
+    private long nextDecodeNanos;
+    /**
+     * This variable stores the moving average of the decode time, in nanoseconds
+     */
+    private double averageDecodeNanos;
+    private long decodedFrames;
+    private long droppedFrames;
+    private long overtakenResults;
+    private boolean running;
+
+    /**
+     * @param handlers  one handler per worker thread
+     * @param listener  receives the results in frame order
+     * @param targetFps the maximum number of decodes per second, 0 for no limit
+     * @param adaptive  true to space decodes further apart when decoding gets slow
+     */
+    DecodeScheduler(List<FrameHandler<R>> handlers, ResultListener<R> listener, int targetFps, boolean adaptive) {
+        if (handlers.isEmpty()) {
+            throw new IllegalArgumentException("At least one frame handler is required");
+        }
+        this.handlers = handlers;
+        this.listener = listener;
+        this.targetIntervalNanos = targetFps > 0 ? 1_000_000_000L / targetFps : 0;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Sets the observer of the frames. Set it before starting the scheduler.
+     *
+     * @param frameListener the observer, null for none
+     */
+    void setFrameListener(FrameListener<R> frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            for (int i = 0; i < handlers.size(); i++) {
+                final FrameHandler<R> handler = handlers.get(i);
+                new Thread(() -> run(handler), "BBScannerDecoder-" + i).start();
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads and discards the pending frame. Decodes in progress are allowed to
+     * finish, but their results are no longer delivered.
+     */
+    void stop() {
+        synchronized (lock) {
+            running = false;
+            pending = null;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Offers a frame for decoding. The frame replaces any frame that is still waiting.
+     *
+     * @param frame the newest frame
+     * @return false if the scheduler is stopped and the frame was ignored
+     */
+    boolean submit(Frame frame) {
+        synchronized (lock) {
+            if (!running) {
+                return false;
+            }
+            if (pending != null) {
+                droppedFrames++;
+                FrameListener<R> observer = frameListener;
+                if (observer != null) {
+                    observer.onFrameDropped();
+                }
+            }
+            pending = frame;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    int getWorkerCount() {
+        return handlers.size();
+    }
+
+    long getDecodedFrames() {
+        synchronized (lock) {
+            return decodedFrames;
+        }
+    }
+
+    long getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    /**
+     * @return the number of results dropped because a newer frame had already produced a result
+     */
+    long getOvertakenResults() {
+        synchronized (lock) {
+            return overtakenResults;
+        }
+    }
+
+    /**
+     * @return the moving average of the decode time in milliseconds
+     */
+    double getAverageDecodeMillis() {
+        synchronized (lock) {
+            return averageDecodeNanos / 1_000_000d;
+        }
+    }
+
+    /**
+     * @return the minimum spacing between the start of two decodes, in nanoseconds
+     */
+    long currentIntervalNanos() {
+        synchronized (lock) {
+            if (!adaptive) {
+                return targetIntervalNanos;
+            }
+            long adaptiveInterval = (long) (averageDecodeNanos / (ADAPTIVE_MAX_BUSY_FRACTION * handlers.size()));
+            return Math.max(targetIntervalNanos, adaptiveInterval);
+        }
+    }
+
+    private void run(FrameHandler<R> handler) {
+        while (true) {
+            Frame frame;
+            long sequence;
+            long start;
+            synchronized (lock) {
+                if (!running) {
+                    return;
+                }
+                if (pending == null) {
+                    waitQuietly(0);
+                    continue;
+                }
+                long waitNanos = nextDecodeNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    // Newer frames may replace the pending one while we wait
+                    waitQuietly(Math.max(1, waitNanos / 1_000_000L));
+                    continue;
+                }
+                frame = pending;
+                pending = null;
+                sequence = nextSequence++;
+                start = System.nanoTime();
+                nextDecodeNanos = start + currentIntervalNanos();
+            }
+
+            R result = null;
+            try {
+                result = handler.decode(frame);
+            } catch (RuntimeException e) {
+                // A broken frame must not kill the worker thread
+            }
+            long duration = System.nanoTime() - start;
+            FrameListener<R> observer = frameListener;
+            if (observer != null) {
+                observer.onFrameDecoded(result, duration);
+            }
+
+            synchronized (lock) {
+                decodedFrames++;
+                averageDecodeNanos = averageDecodeNanos == 0 ? duration
+                        : averageDecodeNanos + DECODE_TIME_SMOOTHING * (duration - averageDecodeNanos);
+                if (result == null || !running) {
+                    continue;
+                }
+                if (sequence < lastDeliveredSequence) {
+                    overtakenResults++;
+                    continue;
+                }
+                lastDeliveredSequence = sequence;
+                // Delivering under the lock keeps the listener calls in frame order
+                listener.onResult(frame, result);
+            }
+        }
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            lock.wait(millis);
+        } catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+}
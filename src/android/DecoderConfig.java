@@ -0,0 +1,139 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The barcode formats a scan looks for, and the decoders built for them.
+ *
+ * Only the readers of the requested formats are created, through the POSSIBLE_FORMATS hint, so a
+ * QR-only scan does not run the 1D readers on every frame.
+ */
+final class DecoderConfig {
+
+    /**
+     * Formats decoded when the scan does not ask for specific ones
+     */
+    static final List<BarcodeFormat> DEFAULT_FORMATS = Collections.unmodifiableList(Arrays.asList(
+            BarcodeFormat.QR_CODE, BarcodeFormat.DATA_MATRIX, BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E, BarcodeFormat.EAN_8, BarcodeFormat.EAN_13, BarcodeFormat.CODE_39,
+            BarcodeFormat.CODE_93, BarcodeFormat.CODE_128, BarcodeFormat.CODABAR, BarcodeFormat.ITF,
+            BarcodeFormat.RSS_14, BarcodeFormat.PDF_417, BarcodeFormat.RSS_EXPANDED));
+
+    /**
+     * This variable stores the formats to decode
+     */
+    private final Set<BarcodeFormat> formats;
+
+    DecoderConfig(Collection<BarcodeFormat> formats) {
+        this.formats = formats.isEmpty() ? EnumSet.copyOf(DEFAULT_FORMATS) : EnumSet.copyOf(formats);
+    }
+
+    /**
+     * Reads the formats from the options of the scan action. The "formats" array is preferred, the
+     * single "format" option is still honored. Unknown names are ignored.
+     *
+     * @param options the scan options, may be null
+     * @return the configuration, with the default formats when none were requested
+     */
+    static DecoderConfig fromOptions(JSONObject options) {
+        EnumSet<BarcodeFormat> requested = EnumSet.noneOf(BarcodeFormat.class);
+        if (options != null) {
+            JSONArray names = options.optJSONArray("formats");
+            if (names != null) {
+                for (int i = 0; i < names.length(); i++) {
+                    BarcodeFormat format = formatFromName(names.optString(i, ""));
+                    if (format != null) {
+                        requested.add(format);
+                    }
+                }
+            } else {
+                BarcodeFormat format = formatFromName(options.optString("format", ""));
+                if (format != null) {
+                    requested.add(format);
+                }
+            }
+        }
+        return new DecoderConfig(requested);
+    }
+
+    /**
+     * Maps the format names used by the javascript API to zxing formats.
+     *
+     * @param name the format name, for example "QR_CODE" or "PDF417"
+     * @return the format, or null if the name is unknown
+     */
+    static BarcodeFormat formatFromName(String name) {
+        if ("PDF417".equals(name)) {
+            return BarcodeFormat.PDF_417;
+        }
+        try {
+            return BarcodeFormat.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps zxing formats back to the format names used by the javascript API.
+     *
+     * @param format the zxing format
+     * @return the name, for example "QR_CODE" or "PDF417"
+     */
+    static String formatName(BarcodeFormat format) {
+        return format == BarcodeFormat.PDF_417 ? "PDF417" : format.name();
+    }
+
+    Set<BarcodeFormat> getFormats() {
+        return Collections.unmodifiableSet(formats);
+    }
+
+    /**
+     * Builds the hints for the readers of this configuration.
+     *
+     * @param baseHints hints to start from, for example a result point callback
+     * @return a new, mutable hint map
+     */
+    Map<DecodeHintType, Object> buildHints(Map<DecodeHintType, ?> baseHints) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.putAll(baseHints);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.copyOf(formats));
+        return hints;
+    }
+
+    /**
+     * Creates a reader for the formats of this configuration. Readers are not thread-safe, every
+     * decoder thread needs its own.
+     *
+     * @param baseHints hints to start from
+     * @return the reader, ready for decodeWithState
+     */
+    MultiFormatReader createReader(Map<DecodeHintType, ?> baseHints) {
+        MultiFormatReader reader = new MultiFormatReader();
+        reader.setHints(buildHints(baseHints));
+        return reader;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DecoderConfig && ((DecoderConfig) other).formats.equals(formats);
+    }
+
+    @Override
+    public int hashCode() {
+        return formats.hashCode();
+    }
+}
@@ -0,0 +1,156 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decodes a few synthetic barcodes so the first live frames do not pay for class loading, reader
+ * setup and interpreted code.
+ *
+ * Every format of the configuration that zxing can write is rendered once, in the NV21 layout of a
+ * portrait back camera, then run through the same {@link LuminanceStage} and {@link FrameDecoder} as
+ * the camera frames, with both binarizers. RSS_14, RSS_EXPANDED and MAXICODE have no writer, their
+ * readers are still created and run on the other samples.
+ *
+ * Plain Java, meant to run once on a background thread.
+ */
+final class DecoderWarmUp {
+
+    /**
+     * The number of times every sample is decoded, enough for the JIT to compile the hot loops
+     */
+    private static final int ROUNDS = 3;
+    /**
+     * The size of a module of the samples, in pixels
+     */
+    private static final int MODULE_SIZE = 3;
+    /**
+     * The height of the bars of the 1D samples, in modules
+     */
+    private static final int BAR_HEIGHT = 30;
+    /**
+     * The quiet zone around the samples, in modules. Some writers add none, the EAN and UPC readers
+     * want more than the writers add
+     */
+    private static final int QUIET_ZONE = 10;
+    /**
+     * The camera rotation the samples are stored with, the usual one of a phone held in portrait
+     */
+    private static final int ROTATION = 90;
+
+    private static final Map<BarcodeFormat, String> SAMPLES = new EnumMap<>(BarcodeFormat.class);
+
+    static {
+        SAMPLES.put(BarcodeFormat.AZTEC, "BBScanner");
+        SAMPLES.put(BarcodeFormat.QR_CODE, "BBScanner");
+        SAMPLES.put(BarcodeFormat.DATA_MATRIX, "BBScanner");
+        SAMPLES.put(BarcodeFormat.PDF_417, "BBScanner");
+        SAMPLES.put(BarcodeFormat.UPC_A, "012345678905");
+        SAMPLES.put(BarcodeFormat.UPC_E, "01234565");
+        SAMPLES.put(BarcodeFormat.EAN_8, "96385074");
+        SAMPLES.put(BarcodeFormat.EAN_13, "5901234123457");
+        SAMPLES.put(BarcodeFormat.CODE_39, "BBSCANNER");
+        SAMPLES.put(BarcodeFormat.CODE_93, "BBSCANNER");
+        SAMPLES.put(BarcodeFormat.CODE_128, "BBScanner");
+        SAMPLES.put(BarcodeFormat.CODABAR, "A1234B");
+        SAMPLES.put(BarcodeFormat.ITF, "00012345678905");
+    }
+
+    private DecoderWarmUp() {
+    }
+
+    /**
+     * Runs the warm-up.
+     *
+     * @param config the formats to warm up
+     * @return the number of samples that decoded, out of the samples rendered
+     */
+    static int run(DecoderConfig config) {
+        BufferPool pool = new BufferPool(2);
+        LuminanceStage stage = new LuminanceStage(pool);
+        FrameDecoder hybrid = new FrameDecoder(config, false,
+                new BinarizerSelector(BinarizerSelector.Strategy.HYBRID));
+        FrameDecoder global = new FrameDecoder(config, false,
+                new BinarizerSelector(BinarizerSelector.Strategy.GLOBAL));
+
+        int decoded = 0;
+        for (BarcodeFormat format : config.getFormats()) {
+            Frame frame = render(format);
+            if (frame == null) {
+                continue;
+            }
+            boolean found = false;
+            for (int round = 0; round < ROUNDS; round++) {
+                found |= decode(stage, hybrid, frame);
+                decode(stage, global, frame);
+            }
+            decoded += found ? 1 : 0;
+        }
+        return decoded;
+    }
+
+    private static boolean decode(LuminanceStage stage, FrameDecoder decoder, Frame frame) {
+        try {
+            LuminanceSource source = stage.extract(frame, 0, 0, frame.height, frame.width, 1);
+            return source != null && decoder.decode(source) != null;
+        } finally {
+            stage.release();
+        }
+    }
+
+    /**
+     * Renders a sample, upright on a white background, and stores it rotated like a camera frame.
+     *
+     * @param format the format of the sample
+     * @return the frame, or null if zxing has no writer for the format
+     */
+    static Frame render(BarcodeFormat format) {
+        String contents = SAMPLES.get(format);
+        if (contents == null) {
+            return null;
+        }
+        BitMatrix code;
+        try {
+            Map<EncodeHintType, Object> hints = Collections.<EncodeHintType, Object>singletonMap(EncodeHintType.MARGIN, 0);
+            code = new MultiFormatWriter().encode(contents, format, 0, 0, hints);
+        } catch (WriterException | IllegalArgumentException e) {
+            return null;
+        }
+        boolean linear = code.getHeight() == 1;
+        // Upright size, the frame is stored rotated by 90 degrees
+        int codeWidth = code.getWidth();
+        int codeHeight = linear ? BAR_HEIGHT : code.getHeight();
+        int displayWidth = (codeWidth + 2 * QUIET_ZONE) * MODULE_SIZE;
+        int displayHeight = (codeHeight + 2 * QUIET_ZONE) * MODULE_SIZE;
+        int width = displayHeight;
+        int height = displayWidth;
+
+        byte[] data = new byte[width * height * 3 / 2];
+        Arrays.fill(data, 0, width * height, (byte) 235);
+        // Chroma is neutral grey
+        Arrays.fill(data, width * height, data.length, (byte) 128);
+        for (int y = 0; y < displayHeight; y++) {
+            int my = y / MODULE_SIZE - QUIET_ZONE;
+            if (my < 0 || my >= codeHeight) {
+                continue;
+            }
+            for (int x = 0; x < displayWidth; x++) {
+                int mx = x / MODULE_SIZE - QUIET_ZONE;
+                if (mx >= 0 && mx < codeWidth && code.get(mx, linear ? 0 : my)) {
+                    // Inverse of the 90 degree rotation LuminanceStage applies
+                    data[(height - 1 - x) * width + y] = 25;
+                }
+            }
+        }
+        return new Frame(data, width, height, 17 /* ImageFormat.NV21 */, ROTATION, 0);
+    }
+}
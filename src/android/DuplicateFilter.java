@@ -0,0 +1,91 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Suppresses repeated results of the same barcode during a multiple scan.
+ *
+ * Codes are keyed on format and text and kept in a bounded LRU cache. The window is fixed, it starts
+ * when a code is reported: sightings within the window are suppressed however often they come, and
+ * the first sighting after it is reported again as a repeat, unless repeats are disabled, in which
+ * case a code is only reported again after it was evicted from the cache. A code held in view is
+ * therefore reported once per window. Every sighting counts as a use for the LRU order.
+ *
+ * This class is not thread-safe.
+ */
+final class DuplicateFilter {
+
+    /**
+     * What a sighting of a code is
+     */
+    enum Sighting {
+        /**
+         * The code was not reported before, or was forgotten since
+         */
+        FIRST,
+        /**
+         * The code was reported before and its window expired
+         */
+        REPEAT,
+        /**
+         * The code was reported within the window, or repeats are disabled
+         */
+        DUPLICATE
+    }
+
+    private final long windowMillis;
+    private final boolean repeatAfterExpiry;
+    /**
+     * This variable stores the last time each code was reported, least recently seen first
+     */
+    private final LinkedHashMap<String, Long> lastReported;
+
+    /**
+     * @param windowMillis      how long a code is suppressed after it was reported
+     * @param capacity          the maximum number of codes remembered
+     * @param repeatAfterExpiry true to report a code again once its window expired
+     */
+    DuplicateFilter(long windowMillis, final int capacity, boolean repeatAfterExpiry) {
+        this.windowMillis = windowMillis;
+        this.repeatAfterExpiry = repeatAfterExpiry;
+        this.lastReported = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > Math.max(1, capacity);
+            }
+        };
+    }
+
+    /**
+     * Records a sighting of a code.
+     *
+     * @param format    the barcode format
+     * @param text      the barcode contents
+     * @param nowMillis the time of the sighting
+     * @return FIRST or REPEAT if the code should be reported, DUPLICATE if not
+     */
+    Sighting check(BarcodeFormat format, String text, long nowMillis) {
+        String key = format.name() + ':' + text;
+        // The lookup alone moves the code to the most recently seen end of the cache
+        Long reported = lastReported.get(key);
+        if (reported == null) {
+            lastReported.put(key, nowMillis);
+            return Sighting.FIRST;
+        }
+        if (repeatAfterExpiry && nowMillis - reported >= windowMillis) {
+            lastReported.put(key, nowMillis);
+            return Sighting.REPEAT;
+        }
+        return Sighting.DUPLICATE;
+    }
+
+    /**
+     * Forgets all codes seen so far.
+     */
+    void clear() {
+        lastReported.clear();
+    }
+}
@@ -0,0 +1,42 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * A single preview frame as delivered by the camera, before any cropping or rotation.
+ */
+final class Frame {
+
+    /**
+     * This variable stores the raw image data, usually NV21
+     */
+    final byte[] data;
+    /**
+     * This variable stores the width of the raw image in pixels
+     */
+    final int width;
+    /**
+     * This variable stores the height of the raw image in pixels
+     */
+    final int height;
+    /**
+     * This variable stores the android.graphics.ImageFormat constant of the raw image
+     */
+    final int imageFormat;
+    /**
+     * This variable stores the clockwise rotation, in degrees, needed to display the frame upright
+     */
+    final int rotation;
+    /**
+     * This variable stores the System.nanoTime() at which the frame was received, or for a replayed
+     * frame the time it is due at in the replay
+     */
+    final long timestampNanos;
+
+    Frame(byte[] data, int width, int height, int imageFormat, int rotation, long timestampNanos) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.imageFormat = imageFormat;
+        this.rotation = rotation;
+        this.timestampNanos = timestampNanos;
+    }
+}
@@ -0,0 +1,133 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ChecksumException;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Decodes luminance images with the readers of a {@link DecoderConfig}.
+ *
+ * In multi-symbol mode every barcode of the image is returned, using the QR code multi reader when
+ * only QR codes were requested and the generic multiple barcode reader otherwise.
+ *
+ * The image is binarized as the {@link BinarizerSelector} of the session decides, with the adaptive
+ * strategy a frame the first binarizer finds nothing in is decoded again with the other one.
+ *
+ * A decoder keeps its readers between calls and is not thread-safe, every decoder thread needs its
+ * own instance.
+ */
+final class FrameDecoder {
+
+    private final Map<DecodeHintType, Object> hints;
+    private final MultiFormatReader reader;
+    /**
+     * This variable stores the reader used in multi-symbol mode, null when decoding a single symbol
+     */
+    private final MultipleBarcodeReader multipleReader;
+    private final BinarizerSelector binarizerSelector;
+
+    /**
+     * @param config            the formats to decode
+     * @param multiple          true to return every barcode of the image instead of the first one found
+     * @param binarizerSelector chooses the binarizer, shared by the decoders of a session
+     */
+    FrameDecoder(DecoderConfig config, boolean multiple, BinarizerSelector binarizerSelector) {
+        this.binarizerSelector = binarizerSelector;
+        this.hints = config.buildHints(Collections.<DecodeHintType, Object>emptyMap());
+        this.reader = config.createReader(Collections.<DecodeHintType, Object>emptyMap());
+        if (!multiple) {
+            this.multipleReader = null;
+        } else if (config.getFormats().equals(EnumSet.of(BarcodeFormat.QR_CODE))) {
+            this.multipleReader = new QRCodeMultiReader();
+        } else {
+            this.multipleReader = new GenericMultipleBarcodeReader(new StatefulReader(reader));
+        }
+    }
+
+    /**
+     * Decodes an image.
+     *
+     * @param source the luminance of the image
+     * @return the barcodes found, or null if there are none
+     */
+    Result[] decode(LuminanceSource source) {
+        boolean global = binarizerSelector.startWithGlobal();
+        Result[] results = decode(source, global);
+        if (results == null && binarizerSelector.getStrategy() == BinarizerSelector.Strategy.ADAPTIVE) {
+            results = decode(source, !global);
+        }
+        return results;
+    }
+
+    /**
+     * Decodes an image with one binarizer and records the outcome.
+     */
+    private Result[] decode(LuminanceSource source, boolean global) {
+        long start = System.nanoTime();
+        Binarizer binarizer = global ? new GlobalHistogramBinarizer(source) : new HybridBinarizer(source);
+        Result[] results = decode(new BinaryBitmap(binarizer));
+        binarizerSelector.record(global, results != null, System.nanoTime() - start);
+        return results;
+    }
+
+    private Result[] decode(BinaryBitmap bitmap) {
+        try {
+            if (multipleReader != null) {
+                return multipleReader.decodeMultiple(bitmap, hints);
+            }
+            return new Result[] { reader.decodeWithState(bitmap) };
+        } catch (ReaderException e) {
+            return null;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Reader that always decodes with the hints the MultiFormatReader was set up with. The generic
+     * multiple barcode reader passes its hints on every call, which would make the MultiFormatReader
+     * rebuild all of its readers for each sub-image it tries.
+     */
+    private static final class StatefulReader implements Reader {
+
+        private final MultiFormatReader delegate;
+
+        StatefulReader(MultiFormatReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image) throws NotFoundException {
+            return delegate.decodeWithState(image);
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints)
+                throws NotFoundException, ChecksumException, FormatException {
+            return delegate.decodeWithState(image);
+        }
+
+        @Override
+        public void reset() {
+            delegate.reset();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+/**
+ * The work done on every frame of a scan, whatever the source: the gates that decide if a frame is
+ * decoded, then the decode of the scan region, from the start level of the pyramid down to the
+ * finest one.
+ *
+ * The {@link DecodeLoop} of the camera and the replay of recordings both run frames through this
+ * class, so a replay measures the code path of the device. The gates run on the thread of the
+ * source, the decodes on the worker threads, each worker with its own stages from
+ * {@link #newStages()}. This class has no Android dependencies.
+ */
+final class FramePipeline {
+
+    /**
+     * What the gates decided for a frame.
+     */
+    enum Verdict {
+        /**
+         * Skipped, the frame looks like the last one nothing was found in
+         */
+        UNCHANGED,
+        /**
+         * Skipped, the frame is too blurry
+         */
+        BLURRY,
+        /**
+         * To decode, the sharpness filter accepted it
+         */
+        SHARP,
+        /**
+         * To decode, no filter looked at it
+         */
+        DECODE
+    }
+
+    /**
+     * This variable stores the scan region as {left, top, width, height} in upright frame pixels,
+     * null when there is nothing to decode
+     */
+    private final int[] crop;
+    /**
+     * This variable stores the downsampling of every pyramid level, coarsest first, a single level
+     * without pyramid
+     */
+    private final int[] scales;
+    /**
+     * This variable stores the pyramid statistics of the session, null to decode at one resolution
+     */
+    private final PyramidSelector pyramid;
+    private final BufferPool[] bufferPools;
+    /**
+     * This variable stores the gate that skips frames without change, null to decode every frame
+     */
+    private final MotionGate motionGate;
+    /**
+     * This variable stores the filter that rejects blurry frames, null to decode every frame. Only
+     * used on the thread of the source.
+     */
+    private final SharpnessFilter sharpnessFilter;
+
+    /**
+     * @param crop            the scan region as {left, top, width, height} in upright frame pixels,
+     *                        null to decode nothing
+     * @param downsample      keep one pixel out of this many in each direction, 1 for full resolution
+     * @param workers         the number of worker threads that decode
+     * @param motionGate      skips frames that did not change since the last one without result,
+     *                        null to decode every frame
+     * @param sharpnessFilter rejects frames too blurry to decode, null to decode every frame
+     * @param pyramid         chooses the resolution frames are decoded at first, null to decode at
+     *                        the downsample resolution only
+     */
+    FramePipeline(int[] crop, int downsample, int workers, MotionGate motionGate, SharpnessFilter sharpnessFilter,
+                  PyramidSelector pyramid) {
+        this.crop = crop;
+        this.motionGate = motionGate;
+        this.sharpnessFilter = sharpnessFilter;
+        this.pyramid = pyramid;
+        this.scales = pyramid != null ? pyramid.getScales() : new int[] { Math.max(1, downsample) };
+        // One array per worker, and one spare for the frame the next free worker picks up. A pool
+        // only keeps arrays of one size, so every pyramid level has its own.
+        this.bufferPools = new BufferPool[scales.length];
+        for (int level = 0; level < scales.length; level++) {
+            bufferPools[level] = new BufferPool(workers + 1);
+        }
+    }
+
+    /**
+     * Creates the luminance stages of one worker, one per pyramid level.
+     *
+     * @return the stages, to pass to every {@link #decode(FrameDecoder, LuminanceStage[], Frame)} of
+     * the worker
+     */
+    LuminanceStage[] newStages() {
+        LuminanceStage[] levelStages = new LuminanceStage[scales.length];
+        for (int level = 0; level < scales.length; level++) {
+            levelStages[level] = new LuminanceStage(bufferPools[level]);
+        }
+        return levelStages;
+    }
+
+    /**
+     * @return the number of pooled arrays that had to be allocated
+     */
+    long getPoolAllocations() {
+        long allocations = 0;
+        for (BufferPool pool : bufferPools) {
+            allocations += pool.getAllocations();
+        }
+        return allocations;
+    }
+
+    /**
+     * Runs a frame through the gates. Called on the thread of the source, before the frame is
+     * offered to the decoders.
+     *
+     * @param frame the frame
+     * @return what the gates decided
+     */
+    Verdict admit(Frame frame) {
+        if (motionGate != null && motionGate.shouldSkip(frame)) {
+            return Verdict.UNCHANGED;
+        }
+        if (sharpnessFilter != null && crop != null) {
+            return sharpnessFilter.accept(frame, crop[0], crop[1], crop[2], crop[3]) ? Verdict.SHARP
+                    : Verdict.BLURRY;
+        }
+        return Verdict.DECODE;
+    }
+
+    /**
+     * Decodes the scan region of a frame on a worker thread, from the start level of the pyramid
+     * down to the finest level until a level finds something.
+     *
+     * @param decoder     the decoder owned by the worker
+     * @param levelStages the luminance stages owned by the worker, from {@link #newStages()}
+     * @param frame       the frame to decode
+     * @return the results, with points in upright frame coordinates, or null if nothing was found
+     */
+    Result[] decode(FrameDecoder decoder, LuminanceStage[] levelStages, Frame frame) {
+        if (crop == null) {
+            return null;
+        }
+        Result[] results = null;
+        boolean found = false;
+        for (int level = pyramid != null ? pyramid.startLevel() : 0; level < scales.length && !found; level++) {
+            LuminanceStage stage = levelStages[level];
+            try {
+                LuminanceSource source = stage.extract(frame, crop[0], crop[1], crop[2], crop[3], scales[level]);
+                if (source == null) {
+                    // The crop is smaller than the downsampling, try the finer levels
+                    continue;
+                }
+                results = decoder.decode(source);
+            } finally {
+                stage.release();
+            }
+            found = results != null && results.length > 0;
+            if (pyramid != null) {
+                pyramid.record(level, found);
+            }
+            if (results != null) {
+                for (Result result : results) {
+                    offsetPoints(result.getResultPoints(), crop[0], crop[1], scales[level]);
+                }
+            }
+        }
+        if (motionGate != null) {
+            motionGate.onDecoded(frame, found);
+        }
+        return results;
+    }
+
+    /**
+     * Moves result points from the coordinates of the downsampled crop to the coordinates of the
+     * whole frame.
+     */
+    static void offsetPoints(ResultPoint[] points, int left, int top, int scale) {
+        if (points == null) {
+            return;
+        }
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] != null) {
+                points[i] = new ResultPoint(points[i].getX() * scale + left, points[i].getY() * scale + top);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package info.belluco.cordova.bbscanner;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The file format of recorded frame sequences, and the writer that records them.
+ *
+ * A recording is a header followed by the frames, all of the same size, each one prefixed by its
+ * timestamp. Integers are big endian.
+ *
+ * <pre>
+ * int  magic, "BBFR"
+ * int  version, 1
+ * int  width, height, imageFormat, rotation   as in {@link Frame}
+ * int  frameSize                              bytes of image data per frame
+ * then per frame:
+ * long timestampNanos                         since the first frame
+ * byte data[frameSize]
+ * </pre>
+ *
+ * This class has no Android dependencies.
+ */
+final class FrameRecording {
+
+    static final int MAGIC = 0x42424652;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 7 * 4;
+
+    final int width;
+    final int height;
+    final int imageFormat;
+    final int rotation;
+    final int frameSize;
+
+    FrameRecording(int width, int height, int imageFormat, int rotation, int frameSize) {
+        this.width = width;
+        this.height = height;
+        this.imageFormat = imageFormat;
+        this.rotation = rotation;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Reads the header of a recording.
+     *
+     * @param buffer the recording, positioned at its start, left positioned at the first frame
+     * @return the header
+     * @throws IOException if the buffer does not hold a recording
+     */
+    static FrameRecording readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a frame recording");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported frame recording version " + version);
+        }
+        FrameRecording header = new FrameRecording(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getInt(), buffer.getInt());
+        if (header.width <= 0 || header.height <= 0 || header.frameSize < header.width * header.height) {
+            throw new IOException("Corrupt frame recording header");
+        }
+        return header;
+    }
+
+    /**
+     * @param fileSize the size of the recording file
+     * @return the number of complete frames in the file
+     */
+    int frameCount(long fileSize) {
+        return (int) Math.max(0, (fileSize - HEADER_SIZE) / (8L + frameSize));
+    }
+
+    /**
+     * Records frames to a file. The size of the first frame sets the size of the recording, frames
+     * of another size are skipped.
+     *
+     * Not thread-safe, frames are appended by the thread of the frame source.
+     */
+    static final class Writer implements Closeable {
+
+        private final File file;
+        private final int maxFrames;
+        private DataOutputStream out;
+        private FrameRecording header;
+        private long firstTimestampNanos;
+        private int frames = 0;
+
+        /**
+         * @param file      the file to write, replaced if it exists
+         * @param maxFrames the number of frames after which the writer stops recording
+         */
+        Writer(File file, int maxFrames) {
+            this.file = file;
+            this.maxFrames = maxFrames;
+        }
+
+        /**
+         * Appends a frame, unless the recording is full or the frame has another size.
+         *
+         * @param frame the frame
+         * @return true if the frame was recorded
+         * @throws IOException if the file cannot be written
+         */
+        boolean append(Frame frame) throws IOException {
+            if (frames >= maxFrames) {
+                return false;
+            }
+            if (out == null) {
+                header = new FrameRecording(frame.width, frame.height, frame.imageFormat, frame.rotation,
+                        frame.data.length);
+                firstTimestampNanos = frame.timestampNanos;
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(header.width);
+                out.writeInt(header.height);
+                out.writeInt(header.imageFormat);
+                out.writeInt(header.rotation);
+                out.writeInt(header.frameSize);
+            } else if (frame.width != header.width || frame.height != header.height
+                    || frame.data.length != header.frameSize) {
+                return false;
+            }
+            out.writeLong(frame.timestampNanos - firstTimestampNanos);
+            out.write(frame.data);
+            frames++;
+            if (frames == maxFrames) {
+                close();
+            }
+            return true;
+        }
+
+        /**
+         * @return the file being written
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the number of frames recorded
+         */
+        int getFrames() {
+            return frames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
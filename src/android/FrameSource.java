@@ -0,0 +1,33 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Where the decode loop gets its frames from: the camera while scanning, or a recording replayed
+ * from disk.
+ *
+ * This interface has no Android dependencies.
+ */
+interface FrameSource {
+
+    /**
+     * Receives the frames, on the thread of the source.
+     */
+    interface Sink {
+        /**
+         * @param frame the frame, owned by the sink from now on
+         * @return true to keep receiving frames
+         */
+        boolean onFrame(Frame frame);
+    }
+
+    /**
+     * Starts delivering frames, until the sink returns false or {@link #stop()} is called.
+     *
+     * @param sink receives the frames
+     */
+    void start(Sink sink);
+
+    /**
+     * Stops delivering frames. A frame being delivered may still reach the sink.
+     */
+    void stop();
+}
@@ -0,0 +1,312 @@
+package info.belluco.cordova.bbscanner;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes barcodes in stored images, without the camera, several images at a time.
+ *
+ * Images are never decoded whole at full resolution. An overview, subsampled to at most
+ * {@link #OVERVIEW_SIDE} pixels, is decoded first; when it holds nothing, or in multi-symbol mode,
+ * the image is decoded again in overlapping tiles of at most {@link #TILE_SIDE} pixels at twice the
+ * resolution of the overview, so small codes in large photos are still found. The memory of a batch
+ * is bounded by the number of workers, not by the size of the images.
+ */
+final class ImageBatchDecoder {
+
+    /**
+     * Receives the outcome of every image, on the worker that decoded it.
+     */
+    interface Listener {
+        /**
+         * @param image the outcome: index and uri of the image, then results or error
+         */
+        void onImage(JSONObject image);
+
+        /**
+         * Called once, after the last image.
+         *
+         * @param decoded the number of images at least one barcode was found in
+         * @param failed  the number of images that could not be read
+         */
+        void onDone(int decoded, int failed);
+    }
+
+    /**
+     * The longest side of the overview of an image, in pixels
+     */
+    static final int OVERVIEW_SIDE = 2048;
+    /**
+     * The side of a tile, in pixels of the tile bitmap
+     */
+    static final int TILE_SIDE = 1024;
+
+    private final ContentResolver contentResolver;
+    private final DecoderConfig config;
+    private final boolean multiSymbol;
+    private final BinarizerSelector binarizerSelector;
+    private final int threads;
+
+    /**
+     * @param contentResolver   opens content:// uris
+     * @param config            the formats to decode
+     * @param multiSymbol       true to return every barcode of an image instead of the first one found
+     * @param binarizerSelector chooses the binarizer, shared by the workers
+     * @param threads           the number of images decoded at a time
+     */
+    ImageBatchDecoder(ContentResolver contentResolver, DecoderConfig config, boolean multiSymbol,
+                      BinarizerSelector binarizerSelector, int threads) {
+        this.contentResolver = contentResolver;
+        this.config = config;
+        this.multiSymbol = multiSymbol;
+        this.binarizerSelector = binarizerSelector;
+        this.threads = Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Decodes images in the background. Returns immediately, the listener receives each image as it
+     * completes, in no particular order.
+     *
+     * @param uris     file paths, file:// or content:// uris
+     * @param listener receives the outcomes
+     */
+    void decode(final List<String> uris, final Listener listener) {
+        if (uris.isEmpty()) {
+            listener.onDone(0, 0);
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(uris.size());
+        final AtomicInteger decoded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final ThreadLocal<FrameDecoder> decoders = new ThreadLocal<>();
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, uris.size()), task -> {
+            Thread thread = new Thread(task, "BBScanner-images-" + threadCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        for (int i = 0; i < uris.size(); i++) {
+            final int index = i;
+            pool.execute(() -> {
+                String uri = uris.get(index);
+                JSONObject image = new JSONObject();
+                try {
+                    image.put("index", index);
+                    image.put("uri", uri);
+                    FrameDecoder decoder = decoders.get();
+                    if (decoder == null) {
+                        // Decoders keep their readers and are not thread-safe, one per worker
+                        decoder = new FrameDecoder(config, multiSymbol, binarizerSelector);
+                        decoders.set(decoder);
+                    }
+                    try {
+                        JSONArray results = decodeImage(decoder, uri);
+                        image.put("results", results);
+                        if (results.length() > 0) {
+                            decoded.incrementAndGet();
+                        }
+                    } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                        failed.incrementAndGet();
+                        image.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+                    }
+                } catch (JSONException e) {
+                    // Keys are never null, cannot happen
+                }
+                listener.onImage(image);
+                if (remaining.decrementAndGet() == 0) {
+                    listener.onDone(decoded.get(), failed.get());
+                }
+            });
+        }
+        // The workers end once the queued images are decoded
+        pool.shutdown();
+    }
+
+    /**
+     * Decodes the barcodes of one image.
+     *
+     * @return the barcodes found, with points in pixels of the full image
+     */
+    private JSONArray decodeImage(FrameDecoder decoder, String uri) throws IOException {
+        LinkedHashMap<String, JSONObject> found = new LinkedHashMap<>();
+        BitmapRegionDecoder regionDecoder = openRegionDecoder(uri);
+        if (regionDecoder == null) {
+            // Formats the region decoder cannot read, such as GIF or BMP, are decoded whole, subsampled
+            decodeSubsampled(decoder, uri, found);
+            return new JSONArray(found.values());
+        }
+        try {
+            int width = regionDecoder.getWidth();
+            int height = regionDecoder.getHeight();
+            int overviewSample = sampleSize(Math.max(width, height), OVERVIEW_SIDE);
+            decodeRegion(decoder, regionDecoder, new Rect(0, 0, width, height), overviewSample, found);
+            if (overviewSample > 1 && (found.isEmpty() || multiSymbol)) {
+                int tileSample = overviewSample / 2;
+                int side = TILE_SIDE * tileSample;
+                // Tiles overlap by a quarter so a code cut by one tile is whole in the next one
+                int step = side * 3 / 4;
+                for (int top = 0; top < height && (found.isEmpty() || multiSymbol); top += step) {
+                    for (int left = 0; left < width && (found.isEmpty() || multiSymbol); left += step) {
+                        Rect tile = new Rect(left, top, Math.min(left + side, width), Math.min(top + side, height));
+                        decodeRegion(decoder, regionDecoder, tile, tileSample, found);
+                        if (tile.right == width) {
+                            break;
+                        }
+                    }
+                    if (top + side >= height) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            regionDecoder.recycle();
+        }
+        return new JSONArray(found.values());
+    }
+
+    private void decodeRegion(FrameDecoder decoder, BitmapRegionDecoder regionDecoder, Rect region, int sample,
+                              LinkedHashMap<String, JSONObject> found) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        Bitmap bitmap = regionDecoder.decodeRegion(region, options);
+        if (bitmap != null) {
+            decodeBitmap(decoder, bitmap, region.left, region.top, (float) region.width() / bitmap.getWidth(),
+                    found);
+        }
+    }
+
+    private void decodeSubsampled(FrameDecoder decoder, String uri, LinkedHashMap<String, JSONObject> found)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+        int width = options.outWidth;
+        int sample = sampleSize(Math.max(width, options.outHeight), OVERVIEW_SIDE);
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        Bitmap bitmap;
+        try (InputStream in = open(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Not an image: " + uri);
+        }
+        decodeBitmap(decoder, bitmap, 0, 0, (float) width / bitmap.getWidth(), found);
+    }
+
+    /**
+     * Decodes a bitmap and recycles it.
+     *
+     * @param left  the left of the bitmap in the full image
+     * @param top   the top of the bitmap in the full image
+     * @param scale the number of image pixels per bitmap pixel
+     */
+    private void decodeBitmap(FrameDecoder decoder, Bitmap bitmap, int left, int top, float scale,
+                              LinkedHashMap<String, JSONObject> found) {
+        Result[] results;
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            results = decoder.decode(new RGBLuminanceSource(width, height, pixels));
+        } finally {
+            bitmap.recycle();
+        }
+        if (results == null) {
+            return;
+        }
+        for (Result result : results) {
+            if (result.getText() == null) {
+                continue;
+            }
+            ResultPoint[] points = result.getResultPoints();
+            if (points != null) {
+                for (int i = 0; i < points.length; i++) {
+                    if (points[i] != null) {
+                        points[i] = new ResultPoint(points[i].getX() * scale + left, points[i].getY() * scale + top);
+                    }
+                }
+            }
+            // A code seen in the overview and again in a tile is reported once
+            String key = result.getBarcodeFormat().name() + ':' + result.getText();
+            if (!found.containsKey(key)) {
+                found.put(key, SymbolCollector.toJson(result));
+            }
+        }
+    }
+
+    /**
+     * @return the region decoder of the image, or null if its format has no region decoder
+     */
+    private BitmapRegionDecoder openRegionDecoder(String uri) {
+        try {
+            String path = filePath(uri);
+            if (path != null) {
+                return BitmapRegionDecoder.newInstance(path, false);
+            }
+            try (InputStream in = open(uri)) {
+                return BitmapRegionDecoder.newInstance(in, false);
+            }
+        } catch (IOException e) {
+            // Unsupported format, or unreadable, which the subsampled decode reports
+            return null;
+        }
+    }
+
+    private InputStream open(String uri) throws IOException {
+        String path = filePath(uri);
+        InputStream in = path != null ? new FileInputStream(path) : contentResolver.openInputStream(Uri.parse(uri));
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    /**
+     * @return the file path of a path or file:// uri, null for other uris
+     */
+    private static String filePath(String uri) {
+        if (uri.startsWith("file:")) {
+            return Uri.parse(uri).getPath();
+        }
+        return uri.indexOf(':') < 0 ? uri : null;
+    }
+
+    /**
+     * @return the power of two that brings the side down to at most the maximum
+     */
+    static int sampleSize(int side, int maxSide) {
+        int sample = 1;
+        while (side / sample > maxSide) {
+            sample *= 2;
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,196 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+/**
+ * Builds the luminance image the readers decode from a camera frame: the Y plane is cropped,
+ * rotated to display orientation and downsampled in a single pass, into an array of a
+ * {@link BufferPool}.
+ *
+ * The zxing-embedded SourceData allocates a rotated copy of the whole frame and then a cropped copy
+ * for every frame. Here the steady state allocates nothing: the array comes back from the pool and
+ * the luminance source is reused as long as the output size does not change.
+ *
+ * A stage is owned by one decoder worker and is not thread-safe. The source returned by
+ * {@link #extract(Frame, int, int, int, int, int)} is valid until {@link #release()}.
+ */
+final class LuminanceStage {
+
+    private final BufferPool pool;
+    private PooledLuminanceSource source;
+    /**
+     * This variable stores the array of the frame being decoded, null between frames
+     */
+    private byte[] buffer;
+    /**
+     * This variable stores the number of frames extracted, written by the owning worker only
+     */
+    private volatile long frames = 0;
+    /**
+     * This variable stores the number of objects allocated besides the pooled arrays, written by
+     * the owning worker only
+     */
+    private volatile long allocations = 0;
+
+    /**
+     * @param pool the pool to take the luminance arrays from
+     */
+    LuminanceStage(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Extracts the luminance of a part of a frame.
+     *
+     * The crop is given in display orientation, like the preview framing rect, and is clamped to
+     * the frame.
+     *
+     * @param frame      the camera frame, NV21 or another format starting with the Y plane
+     * @param left       the left edge of the crop, in rotated frame pixels
+     * @param top        the top edge of the crop, in rotated frame pixels
+     * @param width      the width of the crop, in rotated frame pixels
+     * @param height     the height of the crop, in rotated frame pixels
+     * @param downsample keep one pixel out of this many in each direction, 1 for full resolution
+     * @return the luminance of the crop, or null if the crop is empty
+     */
+    LuminanceSource extract(Frame frame, int left, int top, int width, int height, int downsample) {
+        release();
+        boolean rotated = frame.rotation % 180 != 0;
+        int rotatedWidth = rotated ? frame.height : frame.width;
+        int rotatedHeight = rotated ? frame.width : frame.height;
+        left = Math.max(0, Math.min(left, rotatedWidth));
+        top = Math.max(0, Math.min(top, rotatedHeight));
+        width = Math.min(width, rotatedWidth - left);
+        height = Math.min(height, rotatedHeight - top);
+        int scale = Math.max(1, downsample);
+        int outWidth = width / scale;
+        int outHeight = height / scale;
+        if (outWidth <= 0 || outHeight <= 0) {
+            return null;
+        }
+
+        buffer = pool.acquire(outWidth * outHeight);
+        copy(frame, left, top, scale, buffer, outWidth, outHeight);
+        frames++;
+
+        if (source == null || source.getWidth() != outWidth || source.getHeight() != outHeight) {
+            source = new PooledLuminanceSource(outWidth, outHeight);
+            allocations++;
+        }
+        source.data = buffer;
+        return source;
+    }
+
+    /**
+     * Gives the array of the last frame back to the pool. The source returned by the last extract
+     * must not be used afterwards.
+     */
+    void release() {
+        if (source != null) {
+            source.data = null;
+        }
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * @return the number of frames extracted
+     */
+    long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of objects allocated besides the pooled arrays
+     */
+    long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Copies the Y plane of a frame into an array, walking the frame in the order of the rotated
+     * and downsampled output so each output pixel is written exactly once.
+     */
+    private static void copy(Frame frame, int left, int top, int scale, byte[] out, int outWidth, int outHeight) {
+        byte[] data = frame.data;
+        int w = frame.width;
+        int h = frame.height;
+        int rotation = frame.rotation;
+        if (rotation == 0 && scale == 1) {
+            for (int y = 0; y < outHeight; y++) {
+                System.arraycopy(data, (top + y) * w + left, out, y * outWidth, outWidth);
+            }
+            return;
+        }
+        int o = 0;
+        for (int y = 0; y < outHeight; y++) {
+            int ry = top + y * scale;
+            int index;
+            int step;
+            switch (rotation) {
+                case 90:
+                    index = (h - 1 - left) * w + ry;
+                    step = -scale * w;
+                    break;
+                case 180:
+                    index = (h - 1 - ry) * w + (w - 1 - left);
+                    step = -scale;
+                    break;
+                case 270:
+                    index = left * w + (w - 1 - ry);
+                    step = scale * w;
+                    break;
+                default:
+                    index = ry * w + left;
+                    step = scale;
+                    break;
+            }
+            for (int x = 0; x < outWidth; x++) {
+                out[o++] = data[index];
+                index += step;
+            }
+        }
+    }
+
+    /**
+     * Luminance source over a pooled array. Its size is fixed, the array is swapped for every frame.
+     */
+    private final class PooledLuminanceSource extends LuminanceSource {
+
+        byte[] data;
+
+        PooledLuminanceSource(int width, int height) {
+            super(width, height);
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            int width = getWidth();
+            if (row == null || row.length < width) {
+                row = new byte[width];
+                allocations++;
+            }
+            System.arraycopy(data, y * width, row, 0, width);
+            return row;
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            // The array has exactly width * height bytes, the readers only read it
+            return data;
+        }
+
+        @Override
+        public boolean isCropSupported() {
+            return true;
+        }
+
+        @Override
+        public LuminanceSource crop(int left, int top, int width, int height) {
+            // Used by the multiple barcode reader, the cropped source shares the pooled array
+            allocations++;
+            return new PlanarYUVLuminanceSource(data, getWidth(), getHeight(), left, top, width, height, false);
+        }
+    }
+}
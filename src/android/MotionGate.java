@@ -0,0 +1,137 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Skips the decoding of frames that look the same as the last frame nothing was found in, so a
+ * phone lying still over a surface without a barcode does not decode the same image over and over.
+ *
+ * Every frame is reduced to a signature: the mean luminance of each cell of a
+ * {@link #GRID}x{@link #GRID} grid, sampled sparsely, minus the mean of the whole signature so a
+ * change of exposure alone does not count as motion. A frame is skipped when the mean absolute
+ * difference between its signature and the reference, in luminance levels, is at most the threshold.
+ * The reference is the signature of the last frame decoded without result; a result clears it, and
+ * every recheck interval a frame goes through regardless, so a code that appears slowly is found.
+ *
+ * Calls may come from the source thread and the worker threads at once. This class has no Android
+ * dependencies.
+ */
+final class MotionGate {
+
+    /**
+     * The number of cells per side of the signature grid
+     */
+    static final int GRID = 16;
+    /**
+     * The number of samples per side of a cell
+     */
+    private static final int SAMPLES = 4;
+
+    private final int threshold;
+    private final long recheckNanos;
+    /**
+     * This variable stores the signature of the last frame decoded without result, null when the
+     * next frame must be decoded
+     */
+    private int[] reference;
+    /**
+     * This variable stores when a frame last went through to the decoder while there was a reference
+     */
+    private long referenceNanos;
+
+    /**
+     * @param threshold      the largest mean luminance difference, out of 255, of a frame that is
+     *                       still the same image
+     * @param recheckMillis  the longest time without decoding a frame, however still the image is
+     */
+    MotionGate(int threshold, long recheckMillis) {
+        this.threshold = Math.max(0, threshold);
+        this.recheckNanos = Math.max(0, recheckMillis) * 1_000_000L;
+    }
+
+    /**
+     * Decides if a frame is worth decoding. Called on the source thread before the frame is offered
+     * to the decoders.
+     *
+     * @param frame the frame
+     * @return true to skip the frame
+     */
+    boolean shouldSkip(Frame frame) {
+        int[] signature = signature(frame);
+        if (signature == null) {
+            return false;
+        }
+        long now = frame.timestampNanos;
+        synchronized (this) {
+            if (reference == null) {
+                return false;
+            }
+            if (now - referenceNanos >= recheckNanos) {
+                // Let this one through, and not every frame until its decode completes
+                referenceNanos = now;
+                return false;
+            }
+            return distance(signature, reference) <= threshold;
+        }
+    }
+
+    /**
+     * Records the outcome of a decode. Called on the worker thread that decoded the frame.
+     *
+     * @param frame the frame that was decoded
+     * @param found true if a barcode was found in the frame
+     */
+    void onDecoded(Frame frame, boolean found) {
+        int[] signature = found ? null : signature(frame);
+        synchronized (this) {
+            reference = signature;
+            referenceNanos = frame.timestampNanos;
+        }
+    }
+
+    /**
+     * @return the signature of the luminance plane of the frame, null if the frame has no plane of
+     * one byte per pixel to sample
+     */
+    static int[] signature(Frame frame) {
+        int width = frame.width;
+        int height = frame.height;
+        if (width < GRID * SAMPLES || height < GRID * SAMPLES || frame.data.length < width * height) {
+            return null;
+        }
+        byte[] data = frame.data;
+        int[] signature = new int[GRID * GRID];
+        int cellWidth = width / GRID;
+        int cellHeight = height / GRID;
+        int stepX = cellWidth / SAMPLES;
+        int stepY = cellHeight / SAMPLES;
+        long total = 0;
+        for (int cy = 0; cy < GRID; cy++) {
+            for (int cx = 0; cx < GRID; cx++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int row = (cy * cellHeight + sy * stepY + stepY / 2) * width + cx * cellWidth + stepX / 2;
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        sum += data[row + sx * stepX] & 0xff;
+                    }
+                }
+                signature[cy * GRID + cx] = sum;
+                total += sum;
+            }
+        }
+        int mean = (int) (total / signature.length);
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] -= mean;
+        }
+        return signature;
+    }
+
+    /**
+     * @return the mean absolute difference of two signatures, in luminance levels
+     */
+    static int distance(int[] a, int[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return (int) (sum / ((long) a.length * SAMPLES * SAMPLES));
+    }
+}
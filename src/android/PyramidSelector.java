@@ -0,0 +1,122 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the resolution a frame is decoded at first, for pyramid decoding.
+ *
+ * A pyramid has up to three levels, downsampled 4x, 2x and 1x on top of the downsampling of the
+ * session. A frame is decoded at the start level first and at the next finer level whenever a level
+ * finds nothing, up to the finest one, so a large close-up code costs a quarter or a sixteenth of a
+ * full decode and a small one still gets the full resolution.
+ *
+ * The start level is the one with the lowest expected cost, from the recent hit rate of every level
+ * and its cost, taken proportional to its number of pixels. Every few frames the coarsest level is
+ * tried first whatever the statistics, so they stay current when the user moves closer. Shared by
+ * the workers of a session, all methods are thread-safe.
+ */
+final class PyramidSelector {
+
+    /**
+     * The largest number of levels
+     */
+    static final int MAX_LEVELS = 3;
+    /**
+     * Every this many frames the coarsest level is tried first
+     */
+    private static final int EXPLORE_INTERVAL = 16;
+    /**
+     * The weight of the last attempt in the recent hit rates
+     */
+    private static final double RATE_WEIGHT = 0.1;
+
+    /**
+     * This variable stores the downsampling of every level, coarsest first
+     */
+    private final int[] scales;
+    private final long[] tries;
+    private final long[] hits;
+    /**
+     * This variable stores the recent share of attempts that found a barcode, per level
+     */
+    private final double[] recentHitRates;
+    private long decisions = 0;
+
+    /**
+     * @param downsample the downsampling of the finest level
+     * @param levels     the number of levels, clamped between 1 and {@link #MAX_LEVELS}
+     */
+    PyramidSelector(int downsample, int levels) {
+        int count = Math.max(1, Math.min(MAX_LEVELS, levels));
+        scales = new int[count];
+        for (int i = 0; i < count; i++) {
+            scales[i] = Math.max(1, downsample) << (count - 1 - i);
+        }
+        tries = new long[count];
+        hits = new long[count];
+        recentHitRates = new double[count];
+        // Without statistics every level is assumed to find half of the codes
+        Arrays.fill(recentHitRates, 0.5);
+    }
+
+    /**
+     * @return the downsampling of every level, coarsest first
+     */
+    int[] getScales() {
+        return scales.clone();
+    }
+
+    /**
+     * Tells which level the next frame is decoded at first.
+     *
+     * @return the index of the level in {@link #getScales()}
+     */
+    synchronized int startLevel() {
+        if (scales.length == 1 || ++decisions % EXPLORE_INTERVAL == 0) {
+            return 0;
+        }
+        // Expected cost of starting at each level, from the finest up: its own cost, plus the cost
+        // of the finer levels when it finds nothing
+        int finest = scales[scales.length - 1];
+        double expected = 0;
+        double best = Double.MAX_VALUE;
+        int start = scales.length - 1;
+        for (int level = scales.length - 1; level >= 0; level--) {
+            double ratio = (double) finest / scales[level];
+            expected = ratio * ratio + (1 - recentHitRates[level]) * expected;
+            if (expected < best) {
+                best = expected;
+                start = level;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Records one decode attempt.
+     *
+     * @param level the level the frame was decoded at
+     * @param found true if a barcode was found
+     */
+    synchronized void record(int level, boolean found) {
+        tries[level]++;
+        hits[level] += found ? 1 : 0;
+        recentHitRates[level] += RATE_WEIGHT * ((found ? 1 : 0) - recentHitRates[level]);
+    }
+
+    /**
+     * @param level the index of the level
+     * @return the number of attempts at this level
+     */
+    synchronized long getTries(int level) {
+        return tries[level];
+    }
+
+    /**
+     * @param level the index of the level
+     * @return the number of attempts at this level that found a barcode
+     */
+    synchronized long getHits(int level) {
+        return hits[level];
+    }
+}
@@ -0,0 +1,68 @@
+package info.belluco.cordova.bbscanner;
+
+import java.io.IOException;
+
+/**
+ * Records the frames of another source to a {@link FrameRecording} file on their way to the sink,
+ * to replay a problem session later.
+ *
+ * Frames are written on the thread of the source before the sink gets them, which slows the source
+ * down, so recording is for debugging sessions only. A write error ends the recording, not the
+ * frames.
+ *
+ * This class has no Android dependencies.
+ */
+final class RecordingFrameSource implements FrameSource {
+
+    private final FrameSource source;
+    private final FrameRecording.Writer writer;
+    private boolean recording = true;
+
+    /**
+     * @param source the source to record
+     * @param writer writes the recording, closed when the source stops
+     */
+    RecordingFrameSource(FrameSource source, FrameRecording.Writer writer) {
+        this.source = source;
+        this.writer = writer;
+    }
+
+    @Override
+    public void start(Sink sink) {
+        source.start(frame -> {
+            record(frame);
+            return sink.onFrame(frame);
+        });
+    }
+
+    @Override
+    public void stop() {
+        source.stop();
+        synchronized (writer) {
+            recording = false;
+            close();
+        }
+    }
+
+    private void record(Frame frame) {
+        synchronized (writer) {
+            if (!recording) {
+                return;
+            }
+            try {
+                writer.append(frame);
+            } catch (IOException e) {
+                recording = false;
+                close();
+            }
+        }
+    }
+
+    private void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // The frames written so far stay readable
+        }
+    }
+}
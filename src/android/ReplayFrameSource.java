@@ -0,0 +1,192 @@
+package info.belluco.cordova.bbscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a {@link FrameRecording} from disk, at a chosen frame rate, at the recorded timing, or as
+ * fast as the sink takes the frames.
+ *
+ * The file is memory mapped a window of frames at a time, so recordings of any length are streamed
+ * without reading them into the heap. Every frame is copied into its own array, the sink may keep
+ * it as long as it wants. Frames are delivered on a thread of the source, stamped with the time they
+ * are due at: the recorded timing, or the chosen frame rate, from the start of the replay. An
+ * unpaced replay stamps them as the recorded timing too, so it does not depend on the speed of the
+ * machine.
+ *
+ * This class has no Android dependencies, recordings made on a phone replay on any JVM.
+ */
+final class ReplayFrameSource implements FrameSource {
+
+    /**
+     * The frame rate to replay as fast as the sink takes the frames, for deterministic runs where
+     * the sink decodes every frame before it returns
+     */
+    static final double UNPACED = -1;
+    /**
+     * The frame rate to replay at the recorded timing
+     */
+    static final double RECORDED = 0;
+
+    /**
+     * The size of the mapped window of the file
+     */
+    private static final long WINDOW_BYTES = 256L << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FrameRecording header;
+    private final int frameCount;
+    private final int framesPerWindow;
+    private final double fps;
+    private final boolean loop;
+    private MappedByteBuffer window;
+    private int windowIndex = -1;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * @param recording the recording to replay
+     * @param fps       the frame rate, {@link #RECORDED} or {@link #UNPACED}
+     * @param loop      true to start over at the end of the recording
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    ReplayFrameSource(File recording, double fps, boolean loop) throws IOException {
+        this.file = new RandomAccessFile(recording, "r");
+        this.channel = file.getChannel();
+        try {
+            ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), FrameRecording.HEADER_SIZE));
+            this.header = FrameRecording.readHeader(head);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        this.frameCount = header.frameCount(channel.size());
+        this.framesPerWindow = (int) Math.max(1, WINDOW_BYTES / (8L + header.frameSize));
+        this.fps = fps;
+        this.loop = loop;
+    }
+
+    /**
+     * @return the header of the recording, with the size and rotation of its frames
+     */
+    FrameRecording getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of frames in the recording
+     */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public synchronized void start(Sink sink) {
+        stop();
+        running = true;
+        thread = new Thread(() -> replay(sink), "BBScanner-replay");
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Waits until the replay ended, at the end of the recording or when stopped.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    void join() throws InterruptedException {
+        Thread replaying;
+        synchronized (this) {
+            replaying = thread;
+        }
+        if (replaying != null) {
+            replaying.join();
+        }
+    }
+
+    /**
+     * Stops the replay and releases the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException {
+        stop();
+        file.close();
+    }
+
+    private void replay(Sink sink) {
+        long startNanos = System.nanoTime();
+        long offsetNanos = 0;
+        long intervalNanos = fps > 0 ? (long) (1_000_000_000L / fps) : 0;
+        try {
+            do {
+                long lastRecordedNanos = 0;
+                for (int i = 0; i < frameCount && running; i++) {
+                    ByteBuffer frameBuffer = frame(i);
+                    long recordedNanos = frameBuffer.getLong();
+                    byte[] data = new byte[header.frameSize];
+                    frameBuffer.get(data);
+                    lastRecordedNanos = recordedNanos;
+
+                    // Frames carry the time they are due at, not the time they were read, so the
+                    // gates that look at the timestamps decide the same way however fast the sink is
+                    long dueNanos = startNanos + (fps > 0 ? offsetNanos + i * intervalNanos
+                            : offsetNanos + recordedNanos);
+                    if (fps != UNPACED) {
+                        long waitNanos = dueNanos - System.nanoTime();
+                        if (waitNanos > 0) {
+                            Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+                        }
+                    }
+                    Frame frame = new Frame(data, header.width, header.height, header.imageFormat,
+                            header.rotation, dueNanos);
+                    if (!sink.onFrame(frame)) {
+                        return;
+                    }
+                }
+                // The next pass starts one frame after the last frame of this one
+                offsetNanos += fps > 0 ? frameCount * intervalNanos
+                        : lastRecordedNanos + (frameCount > 1 ? lastRecordedNanos / (frameCount - 1) : 0);
+            } while (loop && running && frameCount > 0);
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (IOException e) {
+            // The file went away, end the replay
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * @return a buffer positioned at the timestamp of a frame, limited to the frame
+     */
+    private ByteBuffer frame(int index) throws IOException {
+        int windowOfFrame = index / framesPerWindow;
+        long recordSize = 8L + header.frameSize;
+        if (windowOfFrame != windowIndex) {
+            long offset = FrameRecording.HEADER_SIZE + windowOfFrame * (long) framesPerWindow * recordSize;
+            long size = Math.min((long) framesPerWindow, frameCount - (long) windowOfFrame * framesPerWindow)
+                    * recordSize;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            windowIndex = windowOfFrame;
+        }
+        ByteBuffer buffer = window.duplicate();
+        int position = (int) ((index % framesPerWindow) * recordSize);
+        buffer.position(position);
+        buffer.limit(position + (int) recordSize);
+        return buffer;
+    }
+}
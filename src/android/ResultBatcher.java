@@ -0,0 +1,114 @@
+package info.belluco.cordova.bbscanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Gathers scan results and delivers them as one JSONArray, either when the batch is full or when
+ * the oldest result has waited for the maximum delay, whichever comes first.
+ *
+ * All methods are thread-safe, the delay timer runs on the given looper.
+ */
+class ResultBatcher {
+
+    /**
+     * Receives the batches.
+     */
+    interface Sink {
+        void send(JSONArray batch);
+    }
+
+    private final long maxDelayMillis;
+    private final int maxItems;
+    private final Sink sink;
+    private final Handler handler;
+    private final Runnable flushTask = this::flush;
+    /**
+     * This variable stores the results not yet sent, null when the batch is empty
+     */
+    private JSONArray pending;
+
+    /**
+     * @param maxDelayMillis the longest time a result waits before the batch is sent
+     * @param maxItems       the number of results that triggers an immediate send
+     * @param sink           receives the batches
+     * @param looper         the looper the delay timer runs on
+     */
+    ResultBatcher(long maxDelayMillis, int maxItems, Sink sink, Looper looper) {
+        this.handler = new Handler(looper);
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxItems = Math.max(1, maxItems);
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a result to the current batch.
+     *
+     * @param text            the barcode contents
+     * @param format          the barcode format
+     * @param timestampMillis the time the barcode was read, in milliseconds since the epoch
+     * @param repeat          true if the code was already reported earlier in the scan
+     */
+    void add(String text, BarcodeFormat format, long timestampMillis, boolean repeat) {
+        JSONArray full = null;
+        synchronized (this) {
+            if (pending == null) {
+                pending = new JSONArray();
+                handler.postDelayed(flushTask, maxDelayMillis);
+            }
+            pending.put(toJson(text, format, timestampMillis, repeat));
+            if (pending.length() >= maxItems) {
+                full = take();
+            }
+        }
+        if (full != null) {
+            sink.send(full);
+        }
+    }
+
+    /**
+     * Sends the current batch right away, if there is one.
+     */
+    void flush() {
+        JSONArray batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (batch != null) {
+            sink.send(batch);
+        }
+    }
+
+    /**
+     * Drops the current batch without sending it.
+     */
+    synchronized void clear() {
+        take();
+    }
+
+    private JSONArray take() {
+        JSONArray batch = pending;
+        pending = null;
+        handler.removeCallbacks(flushTask);
+        return batch;
+    }
+
+    private static JSONObject toJson(String text, BarcodeFormat format, long timestampMillis, boolean repeat) {
+        JSONObject entry = new JSONObject();
+        try {
+            entry.put("text", text);
+            entry.put("format", DecoderConfig.formatName(format));
+            entry.put("timestamp", timestampMillis);
+            entry.put("repeat", repeat);
+        } catch (JSONException e) {
+            // Keys are never null, cannot happen
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,48 @@
+package info.belluco.cordova.bbscanner;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The thread scan results are handled on: filtering, deduplication, batching and the JSON of the
+ * results, so reading a code does not cost the UI thread a frame.
+ *
+ * Only the view and camera operations a result leads to go back to the UI thread.
+ */
+final class ResultDispatcher {
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    ResultDispatcher() {
+        // Results are what the user waits for, they go before the background work of the app
+        thread = new HandlerThread("BBScanner-results", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * @return the looper of the dispatcher thread
+     */
+    Looper getLooper() {
+        return thread.getLooper();
+    }
+
+    /**
+     * Runs a task on the dispatcher thread.
+     *
+     * @param task the task
+     */
+    void post(Runnable task) {
+        handler.post(task);
+    }
+
+    /**
+     * Stops the thread once the tasks already posted ran.
+     */
+    void quit() {
+        thread.quitSafely();
+    }
+}
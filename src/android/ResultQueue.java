@@ -0,0 +1,185 @@
+package info.belluco.cordova.bbscanner;
+
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded queue between the scan results and the Cordova bridge, with credit based flow control.
+ *
+ * The JavaScript side is given a number of credits, every message sent uses one and every message
+ * acknowledged gives it back. While the page is busy it does not acknowledge, so the results wait
+ * here instead of piling up in the bridge, and the queue being bounded, the stale ones are dropped
+ * according to the {@link Policy}. Without flow control the results are sent right away.
+ *
+ * All methods are thread-safe, results are sent outside of the lock.
+ */
+final class ResultQueue {
+
+    /**
+     * What happens to a result when the queue is full.
+     */
+    enum Policy {
+        /** The oldest queued result is dropped */
+        DROP_OLDEST,
+        /** The new result is dropped */
+        DROP_NEWEST,
+        /**
+         * A queued result with the same value is replaced by the new one, otherwise the oldest is
+         * dropped
+         */
+        COALESCE;
+
+        /**
+         * @param name the option value, like "dropOldest" or "coalesce", case insensitive
+         * @return the policy, DROP_OLDEST if the name is unknown
+         */
+        static Policy fromName(String name) {
+            if (name != null) {
+                String normalized = name.replace("_", "");
+                for (Policy policy : values()) {
+                    if (policy.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                        return policy;
+                    }
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * Receives the results to send.
+     */
+    interface Sink {
+        /**
+         * @param result the result
+         * @param count  the number of barcodes in the result
+         */
+        void send(PluginResult result, int count);
+    }
+
+    private static final class Entry {
+        final String key;
+        PluginResult result;
+        int count;
+
+        Entry(String key, PluginResult result, int count) {
+            this.key = key;
+            this.result = result;
+            this.count = count;
+        }
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    /**
+     * This variable stores the number of messages that may be unacknowledged, 0 without flow control
+     */
+    private final int window;
+    private final Sink sink;
+    private final ScanMetrics metrics;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private int credits;
+
+    /**
+     * @param capacity the number of results the queue holds
+     * @param policy   what happens to a result when the queue is full
+     * @param window   the number of messages that may be unacknowledged, 0 to send right away
+     * @param sink     sends the results
+     * @param metrics  counts the dropped and coalesced results
+     */
+    ResultQueue(int capacity, Policy policy, int window, Sink sink, ScanMetrics metrics) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.window = Math.max(0, window);
+        this.credits = this.window;
+        this.sink = sink;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends a result if a credit is left, queues it otherwise.
+     *
+     * @param key    the value results are coalesced by, null to never coalesce this result
+     * @param result the result
+     * @param count  the number of barcodes in the result
+     */
+    void offer(String key, PluginResult result, int count) {
+        synchronized (this) {
+            if (window > 0 && (credits == 0 || !queue.isEmpty())) {
+                enqueue(key, result, count);
+                return;
+            }
+            if (window > 0) {
+                credits--;
+            }
+        }
+        sink.send(result, count);
+    }
+
+    /**
+     * Gives credits back and sends the results they allow.
+     *
+     * @param messages the number of messages the JavaScript side handled
+     */
+    void ack(int messages) {
+        while (true) {
+            Entry next;
+            synchronized (this) {
+                credits = Math.min(window, credits + Math.max(0, messages));
+                messages = 0;
+                if (credits == 0 || queue.isEmpty()) {
+                    return;
+                }
+                credits--;
+                next = queue.pollFirst();
+            }
+            sink.send(next.result, next.count);
+        }
+    }
+
+    /**
+     * Sends every queued result, whatever the credits.
+     */
+    void flush() {
+        while (true) {
+            Entry next;
+            synchronized (this) {
+                next = queue.pollFirst();
+                if (next == null) {
+                    return;
+                }
+                credits = Math.max(0, credits - 1);
+            }
+            sink.send(next.result, next.count);
+        }
+    }
+
+    /**
+     * @return the number of queued results
+     */
+    synchronized int size() {
+        return queue.size();
+    }
+
+    private void enqueue(String key, PluginResult result, int count) {
+        if (policy == Policy.COALESCE && key != null) {
+            for (Entry entry : queue) {
+                if (key.equals(entry.key)) {
+                    metrics.add(ScanMetrics.RESULTS_COALESCED, entry.count);
+                    entry.result = result;
+                    entry.count = count;
+                    return;
+                }
+            }
+        }
+        if (queue.size() >= capacity) {
+            if (policy == Policy.DROP_NEWEST) {
+                metrics.add(ScanMetrics.RESULTS_DROPPED, count);
+                return;
+            }
+            metrics.add(ScanMetrics.RESULTS_DROPPED, queue.pollFirst().count);
+        }
+        queue.addLast(new Entry(key, result, count));
+    }
+}
@@ -0,0 +1,77 @@
+package info.belluco.cordova.bbscanner;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Output stream whose buffer is kept between uses and can be read without the copy made by
+ * toByteArray().
+ *
+ * The buffer grows to the largest output written, but a buffer over the retained size is dropped by
+ * {@link #trim()} once its content was read, so a single large output does not stay in memory for
+ * the life of the stream. This class has no Android dependencies.
+ */
+final class ReusableOutputStream extends ByteArrayOutputStream {
+
+    private final int initialSize;
+    /**
+     * This variable stores the largest buffer kept once its content was read
+     */
+    private final int maxRetainedSize;
+
+    /**
+     * @param initialSize     the size of the first buffer, and of the buffer after a release
+     * @param maxRetainedSize the largest buffer kept between uses
+     */
+    ReusableOutputStream(int initialSize, int maxRetainedSize) {
+        super(initialSize);
+        this.initialSize = initialSize;
+        this.maxRetainedSize = Math.max(initialSize, maxRetainedSize);
+    }
+
+    /**
+     * Empties the stream and makes sure the buffer can take the given number of bytes without
+     * growing. The buffer is sized up to the retained size at most, above it the stream only grows
+     * when the output really is that large, so an estimate on the large side does not replace a
+     * buffer that would have been kept.
+     */
+    synchronized void reset(int expectedSize) {
+        reset();
+        int size = Math.min(expectedSize, maxRetainedSize);
+        if (buf.length < size) {
+            buf = new byte[size];
+        }
+    }
+
+    /**
+     * @return the buffer, holding {@link #size()} bytes of content
+     */
+    synchronized byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * @return the length of the buffer
+     */
+    synchronized int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * Drops the buffer when it is larger than the retained size. Call it once the content was read.
+     */
+    synchronized void trim() {
+        if (buf.length > maxRetainedSize) {
+            release();
+        }
+    }
+
+    /**
+     * Drops the content and goes back to a buffer of the initial size.
+     */
+    synchronized void release() {
+        count = 0;
+        if (buf.length > initialSize) {
+            buf = new byte[initialSize];
+        }
+    }
+}
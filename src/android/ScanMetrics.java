@@ -0,0 +1,258 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the scan path.
+ *
+ * Recording only updates atomic counters, it never locks and never allocates, so the metrics can
+ * stay on in production. Reading builds a JSON snapshot; a snapshot taken while frames are being
+ * recorded may be off by the frames in flight.
+ *
+ * All methods are thread-safe.
+ */
+final class ScanMetrics {
+
+    /** Preview frames handed to the decode loop */
+    static final int FRAMES_RECEIVED = 0;
+    /** Frames a decoder worker ran on */
+    static final int FRAMES_DECODED = 1;
+    /** Frames replaced by a newer one before a worker was free */
+    static final int FRAMES_DROPPED = 2;
+    /** Results sent to the JavaScript side */
+    static final int RESULTS = 3;
+    /** Calls to scan() */
+    static final int SCANS = 4;
+    /** Results dropped by a full result queue */
+    static final int RESULTS_DROPPED = 5;
+    /** Results replaced in the result queue by a newer one with the same value */
+    static final int RESULTS_COALESCED = 6;
+    /** Frames not decoded because they looked the same as the last frame without result */
+    static final int FRAMES_SKIPPED = 7;
+    /** Frames the sharpness filter let through */
+    static final int FRAMES_SHARP = 8;
+    /** Frames the sharpness filter rejected as too blurry */
+    static final int FRAMES_BLURRY = 9;
+
+    private static final String[] COUNTER_NAMES = { "framesReceived", "framesDecoded", "framesDropped",
+            "results", "scans", "resultsDropped", "resultsCoalesced", "framesSkipped", "framesSharp",
+            "framesBlurry" };
+
+    private static final BarcodeFormat[] FORMATS = BarcodeFormat.values();
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+    /**
+     * This variable stores the decode latency per format of the first result, the last histogram
+     * holds the frames without a result
+     */
+    private final Histogram[] decodeLatency = new Histogram[FORMATS.length + 1];
+    private final Histogram timeToFirstResult = new Histogram();
+    private final Histogram bridgeSend = new Histogram();
+    /**
+     * This variable stores the System.nanoTime() of the last reset
+     */
+    private final AtomicLong resetNanos = new AtomicLong(System.nanoTime());
+    /**
+     * This variable stores the duration of the decoder warm-up, -1 until it finished
+     */
+    private final AtomicLong warmUpNanos = new AtomicLong(-1);
+    /**
+     * This variable stores the number of warm-up samples that decoded
+     */
+    private volatile int warmUpDecoded = 0;
+
+    ScanMetrics() {
+        for (int i = 0; i < decodeLatency.length; i++) {
+            decodeLatency[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @param counter one of the counter constants
+     */
+    void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    /**
+     * @param counter one of the counter constants
+     * @param delta   the amount to add
+     */
+    void add(int counter, long delta) {
+        counters.addAndGet(counter, delta);
+    }
+
+    /**
+     * Records the time a decoder worker spent on a frame.
+     *
+     * @param format the format of the first barcode found, null if nothing was found
+     * @param nanos  the decode time
+     */
+    void recordDecode(BarcodeFormat format, long nanos) {
+        decodeLatency[format == null ? FORMATS.length : format.ordinal()].record(nanos);
+    }
+
+    /**
+     * @param nanos the time from a scan() call to its first result
+     */
+    void recordTimeToFirstResult(long nanos) {
+        timeToFirstResult.record(nanos);
+    }
+
+    /**
+     * @param nanos the time a result took to be handed to the Cordova bridge
+     */
+    void recordBridgeSend(long nanos) {
+        bridgeSend.record(nanos);
+    }
+
+    /**
+     * Records the decoder warm-up, which runs once and is kept across resets.
+     *
+     * @param nanos   the duration of the warm-up
+     * @param decoded the number of samples that decoded
+     */
+    void recordWarmUp(long nanos, int decoded) {
+        warmUpDecoded = decoded;
+        warmUpNanos.set(Math.max(0, nanos));
+    }
+
+    /**
+     * @return the duration of the decoder warm-up in milliseconds, -1 if it did not run or did not
+     * finish yet
+     */
+    long getWarmUpMillis() {
+        long nanos = warmUpNanos.get();
+        return nanos < 0 ? -1 : nanos / 1_000_000L;
+    }
+
+    /**
+     * Sets all counters and histograms back to zero.
+     */
+    void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (Histogram histogram : decodeLatency) {
+            histogram.reset();
+        }
+        timeToFirstResult.reset();
+        bridgeSend.reset();
+        resetNanos.set(System.nanoTime());
+    }
+
+    /**
+     * @return a snapshot of the metrics
+     */
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("sinceResetMs", (System.nanoTime() - resetNanos.get()) / 1_000_000L);
+            for (int i = 0; i < COUNTER_NAMES.length; i++) {
+                json.put(COUNTER_NAMES[i], counters.get(i));
+            }
+            JSONObject latency = new JSONObject();
+            for (int i = 0; i < decodeLatency.length; i++) {
+                if (decodeLatency[i].count.get() > 0) {
+                    latency.put(i == FORMATS.length ? "none" : DecoderConfig.formatName(FORMATS[i]),
+                            decodeLatency[i].toJson());
+                }
+            }
+            json.put("decodeLatency", latency);
+            json.put("timeToFirstResult", timeToFirstResult.toJson());
+            json.put("bridgeSend", bridgeSend.toJson());
+            JSONObject warmUp = new JSONObject();
+            warmUp.put("ms", getWarmUpMillis());
+            warmUp.put("decoded", warmUpDecoded);
+            json.put("warmUp", warmUp);
+        } catch (JSONException e) {
+            // Keys are never null and values are finite, cannot happen
+        }
+        return json;
+    }
+
+    /**
+     * Histogram of durations in power of two buckets of microseconds: bucket 0 counts durations
+     * under 1 us, bucket i durations from 2^(i-1) to 2^i us. The last bucket also takes everything
+     * longer, about 18 minutes and up.
+     */
+    static final class Histogram {
+
+        static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            long micros = nanos / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sumNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sumNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls in, capped to the
+         * largest duration recorded.
+         *
+         * @param fraction the percentile, between 0 and 1
+         * @return the estimate in milliseconds
+         */
+        double percentileMillis(double fraction) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            int bucket = 0;
+            for (; bucket < BUCKETS - 1; bucket++) {
+                seen += snapshot[bucket];
+                if (seen >= rank) {
+                    break;
+                }
+            }
+            double upperMillis = (1L << bucket) / 1000d;
+            return Math.min(upperMillis, maxNanos.get() / 1_000_000d);
+        }
+
+        JSONObject toJson() throws JSONException {
+            long n = count.get();
+            JSONObject json = new JSONObject();
+            json.put("count", n);
+            json.put("meanMs", n == 0 ? 0 : sumNanos.get() / 1_000_000d / n);
+            json.put("p50Ms", percentileMillis(0.5));
+            json.put("p90Ms", percentileMillis(0.9));
+            json.put("p99Ms", percentileMillis(0.99));
+            json.put("maxMs", maxNanos.get() / 1_000_000d);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package info.belluco.cordova.bbscanner;
+
+import org.json.JSONObject;
+
+/**
+ * A rectangular part of the preview that is handed to the decoder instead of the whole frame. The
+ * rectangle is expressed in display orientation, on the frame rotated upright as the user sees it,
+ * not on the camera frame as the sensor delivers it; the decode loop rotates the frame and then
+ * crops it. Edges are fractions of the upright frame size, so the same region can be applied to any
+ * preview resolution.
+ */
+final class ScanRegion {
+
+    /**
+     * This variable stores the left edge of the region, as a fraction of the upright frame width
+     */
+    private final float left;
+    /**
+     * This variable stores the top edge of the region, as a fraction of the upright frame height
+     */
+    private final float top;
+    /**
+     * This variable stores the width of the region, as a fraction of the upright frame width
+     */
+    private final float width;
+    /**
+     * This variable stores the height of the region, as a fraction of the upright frame height
+     */
+    private final float height;
+
+    /**
+     * Creates a region. Values are clamped so the region always lies inside the frame.
+     *
+     * @param left   the left edge, from 0 to 1
+     * @param top    the top edge, from 0 to 1
+     * @param width  the width, from 0 to 1
+     * @param height the height, from 0 to 1
+     */
+    ScanRegion(float left, float top, float width, float height) {
+        this.left = clamp(left, 0f, 1f);
+        this.top = clamp(top, 0f, 1f);
+        this.width = clamp(width, 0f, 1f - this.left);
+        this.height = clamp(height, 0f, 1f - this.top);
+    }
+
+    /**
+     * Parses the value of the "region" option of the scan action.
+     *
+     * @param option the raw option value, either "auto" or an object with left, top, width and height
+     * @return the parsed region, or null when the preview framing rect of the view should be used
+     */
+    static ScanRegion fromOption(Object option) {
+        if (!(option instanceof JSONObject)) {
+            // "auto", missing or unsupported values fall back to the preview framing rect
+            return null;
+        }
+        JSONObject region = (JSONObject) option;
+        return new ScanRegion(
+                (float) region.optDouble("left", 0),
+                (float) region.optDouble("top", 0),
+                (float) region.optDouble("width", 1),
+                (float) region.optDouble("height", 1));
+    }
+
+    /**
+     * Resolves the region to pixel coordinates of the upright frame. The result is never empty, a
+     * region that would round to zero pixels is widened to one pixel.
+     *
+     * @param frameWidth  the width of the upright frame in pixels
+     * @param frameHeight the height of the upright frame in pixels
+     * @return the region as {left, top, width, height} in pixels
+     */
+    int[] resolve(int frameWidth, int frameHeight) {
+        int x = Math.min(Math.round(left * frameWidth), frameWidth - 1);
+        int y = Math.min(Math.round(top * frameHeight), frameHeight - 1);
+        int w = Math.max(1, Math.min(Math.round(width * frameWidth), frameWidth - x));
+        int h = Math.max(1, Math.min(Math.round(height * frameHeight), frameHeight - y));
+        return new int[] { x, y, w, h };
+    }
+
+    private static float clamp(float value, float min, float max) {
+        if (Float.isNaN(value)) {
+            return min;
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+}
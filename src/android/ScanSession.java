@@ -0,0 +1,95 @@
+package info.belluco.cordova.bbscanner;
+
+import org.apache.cordova.CallbackContext;
+
+/**
+ * The options of one scan call and the result stages built from them.
+ *
+ * A session is created on the UI thread when a scan starts and published to the result thread as a
+ * whole, through a single volatile field, so the result thread never sees the options of one scan
+ * mixed with those of another. The stages it holds are only used on the result thread, and a
+ * session is flushed and ended there too, in order with the results.
+ */
+final class ScanSession {
+
+    /**
+     * This variable stores the callback of the scan call, which receives the results
+     */
+    final CallbackContext callback;
+    /**
+     * This variable stores the barcode formats the scan looks for
+     */
+    final DecoderConfig decoderConfig;
+    /**
+     * This variable stores if the scan keeps reporting results instead of ending on the first one
+     */
+    final boolean multipleScan;
+    /**
+     * This variable stores if every barcode of a frame is returned instead of the first one found
+     */
+    final boolean multiSymbol;
+    /**
+     * This variable stores the barcodes collected in multi-symbol mode
+     */
+    final SymbolCollector symbolCollector;
+    /**
+     * This variable stores the filter of repeated results in multipleScan mode, null when disabled
+     */
+    final DuplicateFilter duplicateFilter;
+    /**
+     * This variable stores the batcher of results in multipleScan mode, null when results are sent
+     * one by one
+     */
+    final ResultBatcher resultBatcher;
+    /**
+     * This variable stores the flow controlled queue of results in multipleScan mode, null when
+     * results are sent right away
+     */
+    final ResultQueue resultQueue;
+    /**
+     * This variable stores if the scan is over, read and written on the result thread only
+     */
+    private boolean ended = false;
+
+    ScanSession(CallbackContext callback, DecoderConfig decoderConfig, boolean multipleScan, boolean multiSymbol,
+                SymbolCollector symbolCollector, DuplicateFilter duplicateFilter, ResultBatcher resultBatcher,
+                ResultQueue resultQueue) {
+        this.callback = callback;
+        this.decoderConfig = decoderConfig;
+        this.multipleScan = multipleScan;
+        this.multiSymbol = multiSymbol;
+        this.symbolCollector = symbolCollector;
+        this.duplicateFilter = duplicateFilter;
+        this.resultBatcher = resultBatcher;
+        this.resultQueue = resultQueue;
+    }
+
+    /**
+     * Sends the results still waiting in the batcher and in the result queue, whatever the credits.
+     * Called on the result thread.
+     */
+    void flush() {
+        if (resultBatcher != null) {
+            resultBatcher.flush();
+        }
+        if (resultQueue != null) {
+            resultQueue.flush();
+        }
+    }
+
+    /**
+     * Sends the waiting results and ends the session, results of its frames still in flight are then
+     * dropped. Called on the result thread.
+     */
+    void end() {
+        flush();
+        ended = true;
+    }
+
+    /**
+     * @return true once the session was ended, on the result thread
+     */
+    boolean isEnded() {
+        return ended;
+    }
+}
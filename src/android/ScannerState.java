@@ -0,0 +1,77 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * The state of the scanner the command queue decides on, and the rules telling which commands
+ * would not change it.
+ *
+ * A snapshot is taken right before a command runs, on the thread that runs the commands. Plain
+ * Java, so the rules do not need Android.
+ */
+final class ScannerState implements CommandQueue.Filter {
+
+    /**
+     * Reads the current state of the scanner.
+     */
+    interface Source {
+        /**
+         * @param state the state to fill
+         */
+        void read(ScannerState state);
+    }
+
+    boolean prepared;
+    boolean scanning;
+    boolean previewing;
+    boolean showing;
+    boolean lightOn;
+    int cameraId;
+
+    private final Source source;
+
+    /**
+     * @param source reads the state of the scanner before every command
+     */
+    ScannerState(Source source) {
+        this.source = source;
+    }
+
+    @Override
+    public boolean isRedundant(CommandQueue.Command command) {
+        source.read(this);
+        return isRedundant(command.kind, command.argument);
+    }
+
+    /**
+     * Tells if a command would leave the current state as it is.
+     *
+     * @param kind     the kind of command
+     * @param argument the argument of the command, -1 if it has none
+     * @return true if the command can be skipped
+     */
+    boolean isRedundant(CommandQueue.Kind kind, int argument) {
+        switch (kind) {
+            case SHOW:
+                return showing;
+            case HIDE:
+                return !showing;
+            case PAUSE_PREVIEW:
+                return !previewing;
+            case RESUME_PREVIEW:
+                // Resuming also restarts the scan, and does nothing before prepare
+                return !prepared || previewing && scanning;
+            case PAUSE_SCAN:
+                return !scanning;
+            case RESUME_SCAN:
+                return scanning;
+            case ENABLE_LIGHT:
+                return lightOn;
+            case DISABLE_LIGHT:
+                return !lightOn;
+            case SWITCH_CAMERA:
+                // A toggle always changes the camera, two toggles that cancel out never do
+                return argument == CommandQueue.KEEP_CAMERA || argument >= 0 && argument == cameraId;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package info.belluco.cordova.bbscanner;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.Looper;
+
+import com.google.zxing.Result;
+import com.journeyapps.barcodescanner.BarcodeView;
+import com.journeyapps.barcodescanner.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BarcodeView that restricts decoding to a configurable {@link ScanRegion} and runs continuous
+ * decoding through a {@link DecodeLoop} instead of the zxing-embedded DecoderThread.
+ *
+ * The decoder crops every preview frame to {@link #getPreviewFramingRect()} before the luminance is
+ * built, so overriding it is enough to keep the zxing readers away from the rest of the frame.
+ */
+class ScannerView extends BarcodeView {
+
+    /**
+     * Receives the barcodes found by the continuous decoding, on the result looper.
+     */
+    interface ResultCallback {
+        /**
+         * @param results the barcodes found in one frame, a single one unless multi-symbol mode is on
+         */
+        void onScanResult(Result[] results);
+    }
+
+    /**
+     * This variable stores the region to decode, null to use the default preview framing rect
+     */
+    private ScanRegion scanRegion;
+    /**
+     * This variable stores the formats to decode
+     */
+    private DecoderConfig decoderConfig = new DecoderConfig(DecoderConfig.DEFAULT_FORMATS);
+    /**
+     * This variable stores if every barcode of a frame is returned instead of the first one found
+     */
+    private boolean multiSymbol = false;
+    /**
+     * This variable stores the callback of the continuous decoding, null when not decoding
+     */
+    private ResultCallback callback;
+    /**
+     * This variable stores the running decode loop, null when the preview is not active
+     */
+    private DecodeLoop decodeLoop;
+    /**
+     * This variable stores the maximum number of decodes per second, 0 for no limit
+     */
+    private int targetFps = 0;
+    /**
+     * This variable stores if decodes are spaced further apart when decoding gets slow
+     */
+    private boolean adaptiveFps = false;
+    /**
+     * This variable stores the number of decoder worker threads
+     */
+    private int decodeThreads = 1;
+    /**
+     * This variable stores the downsampling factor of the decoded luminance, 1 for full resolution
+     */
+    private int downsample = 1;
+    /**
+     * This variable stores how frames are binarized
+     */
+    private BinarizerSelector.Strategy binarizer = BinarizerSelector.Strategy.HYBRID;
+    /**
+     * This variable stores the binarizer statistics of the current scan session
+     */
+    private BinarizerSelector binarizerSelector = new BinarizerSelector(binarizer);
+    /**
+     * This variable stores the allocations per frame of the last decode loop, kept after it stopped
+     */
+    private double allocationsPerFrame = 0;
+    /**
+     * This variable stores the metrics the decode loop records into
+     */
+    private ScanMetrics metrics = new ScanMetrics();
+    /**
+     * This variable stores the looper the results are delivered on, null for the main looper
+     */
+    private Looper resultLooper;
+    /**
+     * This variable stores the source of the decoded frames, null for the camera preview
+     */
+    private FrameSource frameSource;
+    /**
+     * This variable stores the writer recording the frames of the next decode loop, null when not
+     * recording
+     */
+    private FrameRecording.Writer recording;
+    /**
+     * This variable stores the largest mean luminance change of a frame skipped as unchanged, 0 to
+     * decode every frame
+     */
+    private int motionThreshold = 0;
+    /**
+     * This variable stores the longest time an unchanged image goes without being decoded
+     */
+    private long motionRecheckMs = 1000;
+    /**
+     * This variable stores the fraction of the recent peak sharpness a frame needs to be decoded, 0
+     * to decode every frame
+     */
+    private double sharpnessRatio = 0;
+    /**
+     * This variable stores the number of pyramid levels frames are decoded at, 1 for a single
+     * resolution
+     */
+    private int pyramidLevels = 1;
+    /**
+     * This variable stores the pyramid statistics of the current scan session, null without pyramid
+     */
+    private PyramidSelector pyramidSelector;
+
+    ScannerView(Context context) {
+        super(context);
+    }
+
+    /**
+     * Sets the region to decode. Takes effect the next time decoding is started.
+     *
+     * @param scanRegion the region, or null to use the default preview framing rect
+     */
+    void setScanRegion(ScanRegion scanRegion) {
+        this.scanRegion = scanRegion;
+    }
+
+    /**
+     * Sets the formats to decode. Takes effect the next time decoding is started, the camera is not
+     * reopened.
+     *
+     * @param decoderConfig the formats to decode
+     */
+    void setDecoderConfig(DecoderConfig decoderConfig) {
+        this.decoderConfig = decoderConfig;
+    }
+
+    DecoderConfig getDecoderConfig() {
+        return decoderConfig;
+    }
+
+    /**
+     * Sets if every barcode of a frame is returned. Takes effect the next time decoding is started.
+     *
+     * @param multiSymbol true to return every barcode of a frame instead of the first one found
+     */
+    void setMultiSymbol(boolean multiSymbol) {
+        this.multiSymbol = multiSymbol;
+    }
+
+    /**
+     * Sets how decodes are paced. Takes effect the next time decoding is started.
+     *
+     * @param targetFps   the maximum number of decodes per second, 0 for no limit
+     * @param adaptiveFps true to space decodes further apart when decoding gets slow
+     */
+    void setDecodePacing(int targetFps, boolean adaptiveFps) {
+        this.targetFps = Math.max(0, targetFps);
+        this.adaptiveFps = adaptiveFps;
+    }
+
+    /**
+     * Sets the number of decoder worker threads. Takes effect the next time decoding is started.
+     *
+     * @param decodeThreads the number of workers, clamped between 1 and the number of processors
+     */
+    void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = Math.max(1, Math.min(decodeThreads, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Sets how much the frames are downsampled before decoding. Takes effect the next time decoding
+     * is started.
+     *
+     * @param downsample keep one pixel out of this many in each direction, 1 for full resolution
+     */
+    void setDownsample(int downsample) {
+        this.downsample = Math.max(1, downsample);
+    }
+
+    /**
+     * Sets the metrics the decoding records into. Takes effect the next time decoding is started.
+     *
+     * @param metrics the metrics
+     */
+    void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the looper the results are delivered on. Takes effect the next time decoding is started.
+     *
+     * @param resultLooper the looper, null for the main looper
+     */
+    void setResultLooper(Looper resultLooper) {
+        this.resultLooper = resultLooper;
+    }
+
+    /**
+     * Sets when frames that did not change are skipped. Takes effect the next time decoding is
+     * started.
+     *
+     * @param motionThreshold the largest mean luminance change, out of 255, of a skipped frame, 0 to
+     *                        decode every frame
+     * @param motionRecheckMs the longest time an unchanged image goes without being decoded
+     */
+    void setMotionGate(int motionThreshold, long motionRecheckMs) {
+        this.motionThreshold = Math.max(0, motionThreshold);
+        this.motionRecheckMs = Math.max(0, motionRecheckMs);
+    }
+
+    /**
+     * Sets how blurry frames are rejected. Takes effect the next time decoding is started, every
+     * decode loop learns its own sharpness peak.
+     *
+     * @param sharpnessRatio the fraction of the recent peak sharpness a frame needs to be decoded, 0
+     *                       to decode every frame
+     */
+    void setSharpnessRatio(double sharpnessRatio) {
+        this.sharpnessRatio = Math.max(0, Math.min(1, sharpnessRatio));
+    }
+
+    /**
+     * Sets the number of resolutions frames are decoded at, coarsest first. Takes effect the next
+     * time decoding is started.
+     *
+     * @param pyramidLevels 2 to try 2x downsampled first, 3 to try 4x then 2x downsampled first, 1 to
+     *                      decode at the downsample resolution only
+     */
+    void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = Math.max(1, Math.min(PyramidSelector.MAX_LEVELS, pyramidLevels));
+    }
+
+    /**
+     * @return the pyramid statistics of the current or last scan session, null without pyramid
+     */
+    PyramidSelector getPyramidSelector() {
+        return pyramidSelector;
+    }
+
+    /**
+     * Sets where the decoded frames come from. Takes effect the next time decoding is started.
+     *
+     * @param frameSource the source, or null for the camera preview
+     */
+    void setFrameSource(FrameSource frameSource) {
+        this.frameSource = frameSource;
+    }
+
+    /**
+     * Records the frames of the next decode loop. Takes effect the next time decoding is started,
+     * the recording ends when that decode loop stops.
+     *
+     * @param recording the writer, or null to stop recording
+     */
+    void setRecording(FrameRecording.Writer recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Sets how frames are binarized. Takes effect the next time decoding is started.
+     *
+     * @param binarizer the binarizer strategy
+     */
+    void setBinarizer(BinarizerSelector.Strategy binarizer) {
+        this.binarizer = binarizer;
+    }
+
+    /**
+     * @return the binarizer statistics of the current or last scan session
+     */
+    BinarizerSelector getBinarizerSelector() {
+        return binarizerSelector;
+    }
+
+    /**
+     * @return the average number of objects allocated to build the luminance of a frame, for the
+     * current decode loop or the last one
+     */
+    double getAllocationsPerFrame() {
+        return decodeLoop != null ? decodeLoop.getAllocationsPerFrame() : allocationsPerFrame;
+    }
+
+    @Override
+    public Rect getPreviewFramingRect() {
+        Size previewSize = getPreviewSize();
+        if (scanRegion == null || previewSize == null) {
+            return super.getPreviewFramingRect();
+        }
+        int[] region = scanRegion.resolve(previewSize.width, previewSize.height);
+        return new Rect(region[0], region[1], region[0] + region[2], region[1] + region[3]);
+    }
+
+    /**
+     * Starts decoding continuously, as soon as the preview is active.
+     *
+     * @param callback receives the barcodes found
+     */
+    void startDecoding(ResultCallback callback) {
+        this.callback = callback;
+        // Every scan session learns its own hit rates, the preview restarting does not reset them
+        this.binarizerSelector = new BinarizerSelector(binarizer);
+        this.pyramidSelector = pyramidLevels > 1 ? new PyramidSelector(downsample, pyramidLevels) : null;
+        startDecodeLoop();
+    }
+
+    @Override
+    public void stopDecoding() {
+        this.callback = null;
+        stopDecodeLoop();
+        super.stopDecoding();
+    }
+
+    @Override
+    protected void previewStarted() {
+        super.previewStarted();
+        startDecodeLoop();
+    }
+
+    @Override
+    public void pause() {
+        stopDecodeLoop();
+        super.pause();
+    }
+
+    private void startDecodeLoop() {
+        stopDecodeLoop(); // To be safe
+
+        if (callback != null && isPreviewActive()) {
+            // Every worker gets its own decoder, and with it its own readers
+            List<FrameDecoder> decoders = new ArrayList<>();
+            for (int i = 0; i < decodeThreads; i++) {
+                decoders.add(new FrameDecoder(decoderConfig, multiSymbol, binarizerSelector));
+            }
+            FrameSource source = frameSource != null ? frameSource : new CameraFrameSource(getCameraInstance());
+            if (recording != null) {
+                // A recording covers one decode loop, restarting the preview must not overwrite it
+                source = new RecordingFrameSource(source, recording);
+                recording = null;
+            }
+            decodeLoop = new DecodeLoop(source, decoders, getPreviewFramingRect(), downsample,
+                    callback, targetFps, adaptiveFps, metrics, resultLooper,
+                    motionThreshold > 0 ? new MotionGate(motionThreshold, motionRecheckMs) : null,
+                    sharpnessRatio > 0 ? new SharpnessFilter(sharpnessRatio) : null, pyramidSelector);
+            decodeLoop.start();
+        }
+    }
+
+    private void stopDecodeLoop() {
+        if (decodeLoop != null) {
+            decodeLoop.stop();
+            allocationsPerFrame = decodeLoop.getAllocationsPerFrame();
+            decodeLoop = null;
+        }
+    }
+}
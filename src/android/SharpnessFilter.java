@@ -0,0 +1,125 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Rejects frames too blurry to be worth decoding, such as those taken while autofocus hunts.
+ *
+ * The sharpness of a frame is the variance of the Laplacian of its luminance, sampled on a sparse
+ * grid over the decoded region in a single pass. What counts as sharp depends on the scene, so the
+ * threshold follows the session: a frame is accepted when its sharpness is at least a ratio of the
+ * recent peak, a running maximum that decays by {@link #DECAY} every frame. A steady scene therefore
+ * never stays rejected for long, and once focus is found the blurry frames of the next hunt are
+ * rejected again.
+ *
+ * Not thread-safe, frames are checked on the thread of the frame source. This class has no Android
+ * dependencies.
+ */
+final class SharpnessFilter {
+
+    /**
+     * The number of pixels sampled per frame, whatever the size of the region
+     */
+    static final int SAMPLES = 16384;
+    /**
+     * The factor the peak decays by every frame, about halving it in half a second at 30 fps
+     */
+    static final double DECAY = 0.95;
+
+    private final double ratio;
+    private double peak = 0;
+
+    /**
+     * @param ratio the fraction of the recent peak sharpness a frame needs to be decoded
+     */
+    SharpnessFilter(double ratio) {
+        this.ratio = Math.max(0, Math.min(1, ratio));
+    }
+
+    /**
+     * Measures a frame and decides if it is sharp enough to decode.
+     *
+     * @param frame  the frame
+     * @param left   the left edge of the decoded region, in rotated frame pixels
+     * @param top    the top edge of the decoded region, in rotated frame pixels
+     * @param width  the width of the decoded region, in rotated frame pixels
+     * @param height the height of the decoded region, in rotated frame pixels
+     * @return true to decode the frame
+     */
+    boolean accept(Frame frame, int left, int top, int width, int height) {
+        double sharpness = sharpness(frame, left, top, width, height);
+        peak = Math.max(sharpness, peak * DECAY);
+        return sharpness >= ratio * peak;
+    }
+
+    /**
+     * Computes the variance of the 4-neighbour Laplacian over a region of the Y plane. The region is
+     * given in display orientation and mapped back onto the unrotated frame, the Laplacian itself
+     * does not depend on the orientation.
+     *
+     * @return the sharpness, 0 for an empty region or a frame without a Y plane
+     */
+    static double sharpness(Frame frame, int left, int top, int width, int height) {
+        int w = frame.width;
+        int h = frame.height;
+        if (frame.data.length < w * h) {
+            return 0;
+        }
+        // The region in unrotated frame pixels
+        int x0;
+        int y0;
+        int regionWidth;
+        int regionHeight;
+        switch (frame.rotation) {
+            case 90:
+                x0 = top;
+                y0 = h - left - width;
+                regionWidth = height;
+                regionHeight = width;
+                break;
+            case 180:
+                x0 = w - left - width;
+                y0 = h - top - height;
+                regionWidth = width;
+                regionHeight = height;
+                break;
+            case 270:
+                x0 = w - top - height;
+                y0 = left;
+                regionWidth = height;
+                regionHeight = width;
+                break;
+            default:
+                x0 = left;
+                y0 = top;
+                regionWidth = width;
+                regionHeight = height;
+                break;
+        }
+        // Keep one pixel away from the edges, every sample needs its four neighbours
+        int x1 = Math.min(w - 1, x0 + regionWidth);
+        int y1 = Math.min(h - 1, y0 + regionHeight);
+        x0 = Math.max(1, x0);
+        y0 = Math.max(1, y0);
+        if (x1 <= x0 || y1 <= y0) {
+            return 0;
+        }
+        int step = Math.max(1, (int) Math.ceil(Math.sqrt((double) (x1 - x0) * (y1 - y0) / SAMPLES)));
+
+        byte[] data = frame.data;
+        long sum = 0;
+        long sumOfSquares = 0;
+        int count = 0;
+        for (int y = y0; y < y1; y += step) {
+            int row = y * w;
+            for (int x = x0; x < x1; x += step) {
+                int index = row + x;
+                int laplacian = 4 * (data[index] & 0xff) - (data[index - 1] & 0xff) - (data[index + 1] & 0xff)
+                        - (data[index - w] & 0xff) - (data[index + w] & 0xff);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        double mean = (double) sum / count;
+        return (double) sumOfSquares / count - mean * mean;
+    }
+}
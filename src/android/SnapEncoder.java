@@ -0,0 +1,276 @@
+package info.belluco.cordova.bbscanner;
+
+import android.graphics.Bitmap;
+import android.util.Base64;
+
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes snapshots of the camera preview.
+ *
+ * The output buffer is kept between snapshots and sized up front from the expected output size, so
+ * repeated snapshots neither grow the buffer step by step nor copy it before the Base64 encoding.
+ * A buffer larger than {@link #MAX_RETAINED_BUFFER_SIZE} is dropped after the snapshot, and the
+ * plugin releases the buffer when scanning stops or the app goes to the background.
+ * Snapshots written to a file are compressed straight into the file and never held in memory.
+ *
+ * This class is not thread-safe, callers synchronize around {@link #encode(Bitmap, Options)}.
+ */
+class SnapEncoder {
+
+    /**
+     * How a snapshot is handed to the JavaScript side.
+     */
+    enum Output {
+        /** A Base64 string */
+        BASE64,
+        /** An ArrayBuffer */
+        BINARY,
+        /** The URI of a file in the app cache directory */
+        FILE
+    }
+
+    /**
+     * The encoding options of a snapshot.
+     */
+    static final class Options {
+        final Bitmap.CompressFormat format;
+        final int quality;
+        final int maxWidth;
+        final int maxHeight;
+        final Output output;
+
+        Options(Bitmap.CompressFormat format, int quality, int maxWidth, int maxHeight, Output output) {
+            this.format = format;
+            this.quality = Math.max(0, Math.min(100, quality));
+            this.maxWidth = Math.max(0, maxWidth);
+            this.maxHeight = Math.max(0, maxHeight);
+            this.output = output;
+        }
+
+        /**
+         * @return the file extension of the format, without the dot
+         */
+        String extension() {
+            if (format == Bitmap.CompressFormat.JPEG) {
+                return "jpg";
+            }
+            if (format == Bitmap.CompressFormat.PNG) {
+                return "png";
+            }
+            return "webp";
+        }
+
+        /**
+         * Reads the options of the snap action. Without options the snapshot is a full size PNG
+         * returned as a Base64 string.
+         *
+         * @param options the snap options, may be null
+         * @return the parsed options
+         */
+        @SuppressWarnings("deprecation")
+        static Options fromJson(JSONObject options) {
+            if (options == null) {
+                options = new JSONObject();
+            }
+            Bitmap.CompressFormat format;
+            switch (options.optString("format", "png").toLowerCase()) {
+                case "jpeg":
+                case "jpg":
+                    format = Bitmap.CompressFormat.JPEG;
+                    break;
+                case "webp":
+                    format = Bitmap.CompressFormat.WEBP;
+                    break;
+                default:
+                    format = Bitmap.CompressFormat.PNG;
+                    break;
+            }
+            Output output;
+            switch (options.optString("output", "base64").toLowerCase()) {
+                case "binary":
+                    output = Output.BINARY;
+                    break;
+                case "file":
+                    output = Output.FILE;
+                    break;
+                default:
+                    output = Output.BASE64;
+                    break;
+            }
+            return new Options(format, options.optInt("quality", format == Bitmap.CompressFormat.PNG ? 100 : 80),
+                    options.optInt("maxWidth", 0), options.optInt("maxHeight", 0), output);
+        }
+    }
+
+    /**
+     * The size of the output buffer when no snapshot was taken yet
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The largest output buffer kept between snapshots, enough for a full HD JPEG
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The number of snapshot files kept in the cache directory, the oldest are deleted first
+     */
+    static final int MAX_FILES = 8;
+    private static final String FILE_PREFIX = "snap-";
+
+    private final ReusableOutputStream output = new ReusableOutputStream(INITIAL_BUFFER_SIZE,
+            MAX_RETAINED_BUFFER_SIZE);
+
+    /**
+     * Scales and compresses a snapshot, then encodes it to Base64.
+     *
+     * @param image   the snapshot, recycled by this method
+     * @param options the encoding options
+     * @return the encoded image
+     */
+    String encode(Bitmap image, Options options) {
+        compress(image, options);
+        String encoded = Base64.encodeToString(output.buffer(), 0, output.size(), Base64.DEFAULT);
+        output.trim();
+        return encoded;
+    }
+
+    /**
+     * Scales and compresses a snapshot.
+     *
+     * @param image   the snapshot, recycled by this method
+     * @param options the encoding options
+     * @return the compressed image, in an array of its own because the bridge sends it later
+     */
+    byte[] encodeBytes(Bitmap image, Options options) {
+        compress(image, options);
+        byte[] bytes = Arrays.copyOf(output.buffer(), output.size());
+        output.trim();
+        return bytes;
+    }
+
+    /**
+     * Scales a snapshot and compresses it straight into a new file. Older snapshot files are deleted
+     * so the directory holds at most {@link #MAX_FILES} of them.
+     *
+     * @param image     the snapshot, recycled by this method
+     * @param options   the encoding options
+     * @param directory the directory to create the file in
+     * @return the file written
+     * @throws IOException if the file cannot be written
+     */
+    File encodeToFile(Bitmap image, Options options, File directory) throws IOException {
+        Bitmap scaled = prepare(image, options);
+        deleteOldFiles(directory, MAX_FILES - 1);
+        File file = File.createTempFile(FILE_PREFIX, "." + options.extension(), directory);
+        boolean written = false;
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            written = scaled.compress(options.format, options.quality, stream);
+        } finally {
+            scaled.recycle();
+            if (!written) {
+                file.delete();
+            }
+        }
+        if (!written) {
+            throw new IOException("Could not compress the snapshot");
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the oldest snapshot files of a directory, so at most the given number remain.
+     *
+     * @param directory the directory the snapshots are written to
+     * @param keep      the number of most recent snapshot files to keep, 0 to delete them all
+     */
+    static void deleteOldFiles(File directory, int keep) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX));
+        if (files == null || files.length <= keep) {
+            return;
+        }
+        // Most recent first
+        Arrays.sort(files, (a, b) -> {
+            int order = Long.compare(b.lastModified(), a.lastModified());
+            return order != 0 ? order : b.getName().compareTo(a.getName());
+        });
+        for (int i = Math.max(0, keep); i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Frees the output buffer kept for the next snapshot, for when no snapshot is expected soon.
+     */
+    void release() {
+        output.release();
+    }
+
+    private void compress(Bitmap image, Options options) {
+        Bitmap scaled = prepare(image, options);
+        output.reset(expectedSize(scaled, options));
+        scaled.compress(options.format, options.quality, output);
+        scaled.recycle();
+    }
+
+    /**
+     * Scales a snapshot to the maximum size of the options, recycling the original when a scaled
+     * copy was made.
+     */
+    private static Bitmap prepare(Bitmap image, Options options) {
+        Bitmap scaled = scale(image, options.maxWidth, options.maxHeight);
+        if (scaled != image) {
+            image.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Scales a bitmap down, keeping its aspect ratio, so it fits the given bounds.
+     *
+     * @param image     the bitmap
+     * @param maxWidth  the maximum width, 0 for no limit
+     * @param maxHeight the maximum height, 0 for no limit
+     * @return the scaled bitmap, or the same bitmap if it already fits
+     */
+    static Bitmap scale(Bitmap image, int maxWidth, int maxHeight) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        float factor = 1f;
+        if (maxWidth > 0 && width > maxWidth) {
+            factor = Math.min(factor, (float) maxWidth / width);
+        }
+        if (maxHeight > 0 && height > maxHeight) {
+            factor = Math.min(factor, (float) maxHeight / height);
+        }
+        if (factor >= 1f) {
+            return image;
+        }
+        return Bitmap.createScaledBitmap(image, Math.max(1, Math.round(width * factor)),
+                Math.max(1, Math.round(height * factor)), true);
+    }
+
+    /**
+     * Estimates the compressed size of a bitmap, erring on the large side so the buffer rarely has
+     * to grow while compressing. The output stream caps it at the retained buffer size.
+     */
+    static int expectedSize(Bitmap image, Options options) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        long bytes;
+        if (options.format == Bitmap.CompressFormat.PNG) {
+            // Camera images barely compress losslessly
+            bytes = pixels * 3;
+        } else {
+            // Lossy formats need roughly 0.1 to 1.5 bytes per pixel depending on the quality
+            bytes = pixels * (10 + options.quality * 140 / 100) / 100;
+        }
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, bytes));
+    }
+}
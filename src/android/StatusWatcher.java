@@ -0,0 +1,135 @@
+package info.belluco.cordova.bbscanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the fields of the status that changed to a kept callback, instead of the page polling
+ * getStatus.
+ *
+ * Callers only tell the watcher the status may have changed, from any thread. The first call
+ * schedules a check one frame later on the main thread, the calls until then are coalesced into it.
+ * The check reads the watched fields and sends the ones that differ from what was last sent, so
+ * a field that flips and flips back within the frame sends nothing.
+ */
+final class StatusWatcher {
+
+    /**
+     * Reads the current values of the watched fields.
+     */
+    interface Source {
+        /**
+         * @param values the array to fill, in the order of the field names
+         */
+        void read(String[] values);
+    }
+
+    /**
+     * The delay a check waits for more changes, about one frame
+     */
+    private static final long COALESCE_MS = 16;
+
+    private final String[] names;
+    private final Source source;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Runnable check = this::check;
+    /**
+     * This variable stores the kept callback of the watcher, null when nobody watches
+     */
+    private volatile CallbackContext callbackContext;
+    /**
+     * This variable stores the values last sent, only used on the main thread
+     */
+    private final String[] sent;
+    private final String[] current;
+
+    /**
+     * @param names  the status keys of the watched fields
+     * @param source reads the fields, called on the main thread
+     */
+    StatusWatcher(String[] names, Source source) {
+        this.names = names.clone();
+        this.source = source;
+        this.sent = new String[names.length];
+        this.current = new String[names.length];
+    }
+
+    /**
+     * Starts pushing changes to a callback, replacing the previous watcher. All watched fields are
+     * sent first, then only the fields that changed.
+     *
+     * @param callbackContext the callback to keep
+     */
+    void watch(CallbackContext callbackContext) {
+        handler.post(() -> {
+            CallbackContext previous = this.callbackContext;
+            if (previous != null && previous != callbackContext) {
+                send(previous, new JSONObject(), false);
+            }
+            this.callbackContext = callbackContext;
+            Arrays.fill(sent, null);
+            check();
+        });
+    }
+
+    /**
+     * Stops pushing changes. The kept callback receives an empty last update.
+     */
+    void unwatch() {
+        handler.post(() -> {
+            CallbackContext previous = callbackContext;
+            callbackContext = null;
+            if (previous != null) {
+                send(previous, new JSONObject(), false);
+            }
+        });
+    }
+
+    /**
+     * Tells the watcher the status may have changed. Cheap when nobody watches, can be called from
+     * any thread.
+     */
+    void statusChanged() {
+        if (callbackContext != null && scheduled.compareAndSet(false, true)) {
+            handler.postDelayed(check, COALESCE_MS);
+        }
+    }
+
+    private void check() {
+        scheduled.set(false);
+        CallbackContext target = callbackContext;
+        if (target == null) {
+            return;
+        }
+        source.read(current);
+        JSONObject delta = new JSONObject();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                if (current[i] != null && !current[i].equals(sent[i])) {
+                    delta.put(names[i], current[i]);
+                    sent[i] = current[i];
+                }
+            }
+        } catch (JSONException e) {
+            // Keys are never null, cannot happen
+        }
+        if (delta.length() > 0) {
+            send(target, delta, true);
+        }
+    }
+
+    private static void send(CallbackContext target, JSONObject delta, boolean keep) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, delta);
+        result.setKeepCallback(keep);
+        target.sendPluginResult(result);
+    }
+}
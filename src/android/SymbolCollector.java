@@ -0,0 +1,88 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Collects the barcodes of multi-symbol scans until the expected number of distinct codes has been
+ * seen, possibly over several frames.
+ *
+ * This class is not thread-safe.
+ */
+final class SymbolCollector {
+
+    /**
+     * This variable stores the number of distinct codes to collect, 0 to report every frame
+     */
+    private final int expectedCount;
+    /**
+     * This variable stores the codes collected so far, keyed on format and text
+     */
+    private final LinkedHashMap<String, JSONObject> collected = new LinkedHashMap<>();
+
+    /**
+     * @param expectedCount the number of distinct codes to collect, 0 to report every frame
+     */
+    SymbolCollector(int expectedCount) {
+        this.expectedCount = Math.max(0, expectedCount);
+    }
+
+    /**
+     * Adds the codes found in a frame.
+     *
+     * @param results the codes of the frame
+     * @return the codes to report, or null while the expected number of codes was not reached
+     */
+    JSONArray add(Result[] results) {
+        for (Result result : results) {
+            if (result.getText() != null) {
+                // The latest position of a code replaces the earlier ones
+                collected.put(result.getBarcodeFormat().name() + ':' + result.getText(), toJson(result));
+            }
+        }
+        if (collected.isEmpty() || collected.size() < expectedCount) {
+            return null;
+        }
+        JSONArray symbols = new JSONArray(collected.values());
+        collected.clear();
+        return symbols;
+    }
+
+    /**
+     * Forgets the codes collected so far.
+     */
+    void clear() {
+        collected.clear();
+    }
+
+    /**
+     * @param result a barcode
+     * @return the barcode as the javascript API reports it, with text, format and points
+     */
+    static JSONObject toJson(Result result) {
+        JSONObject symbol = new JSONObject();
+        try {
+            symbol.put("text", result.getText());
+            symbol.put("format", DecoderConfig.formatName(result.getBarcodeFormat()));
+            JSONArray points = new JSONArray();
+            ResultPoint[] resultPoints = result.getResultPoints();
+            if (resultPoints != null) {
+                for (ResultPoint point : resultPoints) {
+                    if (point != null) {
+                        points.put(new JSONObject().put("x", point.getX()).put("y", point.getY()));
+                    }
+                }
+            }
+            symbol.put("points", points);
+        } catch (JSONException e) {
+            // Keys are never null and coordinates are finite, cannot happen
+        }
+        return symbol;
+    }
+}
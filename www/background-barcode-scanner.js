@@ -47,10 +47,21 @@ function convertStatus(statusDictionary) {
 		canOpenSettings: stringToBool(statusDictionary.canOpenSettings),
 		canEnableLight: stringToBool(statusDictionary.canEnableLight),
 		canChangeCamera: stringToBool(statusDictionary.canChangeCamera),
-		currentCamera: parseInt(statusDictionary.currentCamera)
+		currentCamera: parseInt(statusDictionary.currentCamera),
+		allocationsPerFrame: parseFloat(statusDictionary.allocationsPerFrame) || 0,
+		warmUpMs: statusDictionary.warmUpMs === undefined ? -1 : parseInt(statusDictionary.warmUpMs)
 	};
 }
 
+// Converts a status update pushed to watchStatus, which only holds the fields that changed.
+function convertStatusDelta(deltaDictionary) {
+	var delta = {};
+	for (var key in deltaDictionary) {
+		delta[key] = key === 'currentCamera' ? parseInt(deltaDictionary[key]) : stringToBool(deltaDictionary[key]);
+	}
+	return delta;
+}
+
 // Error callback
 function errorCallback(callback) {
 	if ( !callback || typeof callback !== 'function')
@@ -184,8 +195,16 @@ exports.scan = function(options, callback) {
 	if (!callback) {
 		throw new Error('No callback provided to scan method.');
 	}
+	var flowControl = options && options.multipleScan && options.flowControl > 0;
 	var success = function(result) {
-		callback(null, result);
+		try {
+			callback(null, result);
+		} finally {
+			// The result was handled, the plugin may send the next one
+			if (flowControl) {
+				exec(null, null, 'BBScanner', 'ackResults', [1]);
+			}
+		}
 	};
 	exec(success, errorCallback(callback), 'BBScanner', 'scan', [options]);
 }
@@ -204,11 +223,15 @@ exports.resume = function(callback) {
 	exec(callback, null, 'BBScanner', 'resume', []);
 }
 
-exports.snap = function(callback) {
+exports.snap = function(options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = {};
+	}
 	if ( !callback || typeof callback !== 'function') {
 		throw new Error('No callback provided to snap method.');
 	}
-	exec(callback, null, 'BBScanner', 'snap', []);
+	exec(callback, null, 'BBScanner', 'snap', [options || {}]);
 }
 
 exports.stop = function(callback) {
@@ -265,6 +288,14 @@ exports.prepare = function(callback) {
 	exec(successCallback(callback), errorCallback(callback), 'BBScanner', 'prepare', []);
 }
 
+exports.prewarm = function(options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = {};
+	}
+	exec(successCallback(callback), errorCallback(callback), 'BBScanner', 'prewarm', [options || {}]);
+}
+
 exports.destroy = function(callback) {
 	exec(doneCallback(callback, true), null, 'BBScanner', 'destroy', []);
 }
@@ -276,6 +307,47 @@ exports.getStatus = function(callback) {
 	exec(doneCallback(callback), null, 'BBScanner', 'getStatus', []);
 }
 
+exports.watchStatus = function(callback) {
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to watchStatus method.');
+	}
+	exec(function(deltaDict) {
+		// The last update of a replaced or stopped watcher is empty
+		if (Object.keys(deltaDict).length > 0) {
+			callback(convertStatusDelta(deltaDict));
+		}
+	}, null, 'BBScanner', 'watchStatus', []);
+}
+
+exports.unwatchStatus = function(callback) {
+	exec(callback, null, 'BBScanner', 'unwatchStatus', []);
+}
+
+exports.getMetrics = function(options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = {};
+	}
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to getMetrics method.');
+	}
+	exec(callback, null, 'BBScanner', 'getMetrics', [options || {}]);
+}
+
+exports.decodeImages = function(uris, options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = {};
+	}
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to decodeImages method.');
+	}
+	var success = function(image) {
+		callback(null, image);
+	};
+	exec(success, errorCallback(callback), 'BBScanner', 'decodeImages', [uris || [], options || {}]);
+}
+
 exports.types = {
 	"AZTEC": "AZTEC",
 	"CODABAR": "CODABAR",